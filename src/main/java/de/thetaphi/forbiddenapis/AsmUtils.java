@@ -20,10 +20,14 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
@@ -156,6 +160,38 @@ public final class AsmUtils {
     }
   }
   
+  /** Returns the hex encoded SHA-1 hash of the given string (UTF-8 encoded). Used to derive stable cache file names and keys. */
+  public static String hash(String s) {
+    try {
+      return hash(s.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e); // every JVM supports UTF-8
+    }
+  }
+  
+  /** Returns the hex encoded SHA-1 hash of the given bytes. */
+  public static String hash(byte[] bytes) {
+    return toHex(newSHA1().digest(bytes));
+  }
+  
+  /** Returns a new SHA-1 {@link MessageDigest}. */
+  public static MessageDigest newSHA1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e); // every JVM supports SHA-1
+    }
+  }
+  
+  /** Returns the lowercase hex representation of the given bytes. */
+  public static String toHex(byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+  
   @SuppressWarnings("unused")
   private static void patchClassMajorVersion(byte[] header, int versionFrom, int versionTo) {
     final ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.BIG_ENDIAN);
@@ -179,7 +215,84 @@ public final class AsmUtils {
     pbin.unread(b);
     return new ClassReader(pbin);
     */
-    return new ClassReader(in);
+    return readAndPatchClass(in, -1L);
+  }
+  
+  /**
+   * Like {@link #readAndPatchClass(InputStream)}, but the size of the class file is given (or {@code -1} if unknown).
+   * The class file is read into a per-thread buffer and only copied once into an array of the exact size, which is owned by the reader.
+   */
+  static ClassReader readAndPatchClass(InputStream in, long size) throws IOException {
+    final ClassFileBuffer buf = ClassFileBuffer.get();
+    buf.readFrom(in, size);
+    return new ClassReader(buf.copyBytes());
+  }
+  
+  /**
+   * Reads a class file to parse its signature, without copying its bytes. The returned reader uses a per-thread buffer,
+   * so it must be dropped before the same thread reads the next class file (it must not be kept in a {@link ClassSignature}).
+   */
+  static ClassReader readClassTransient(InputStream in, long size) throws IOException {
+    final ClassFileBuffer buf = ClassFileBuffer.get();
+    buf.readFrom(in, size);
+    return new ClassReader(buf.bytes, 0, buf.length);
+  }
+  
+  /**
+   * Reads only the signature of a related class from a class file, using the {@link ClassHeaderParser} instead of ASM.
+   * Class files of the Java runtime may be newer than supported by ASM, but as no bytecode is parsed, any version can be read.
+   */
+  static ClassSignature readClassSignature(InputStream in, long size, boolean isRuntimeClass) throws IOException {
+    final ClassFileBuffer buf = ClassFileBuffer.get();
+    buf.readFrom(in, size);
+    return ClassHeaderParser.parse(buf.bytes, buf.length, isRuntimeClass);
+  }
+  
+  /**
+   * The buffer used to read class files, one per thread. It grows to the largest class file read (up to
+   * {@link #MAX_KEPT_SIZE}), so reading many class files does not allocate (and copy) new buffers for each of them.
+   */
+  private static final class ClassFileBuffer {
+    private static final int INITIAL_SIZE = 8192, MAX_KEPT_SIZE = 1 << 20;
+    
+    private static final ThreadLocal<ClassFileBuffer> BUFFERS = new ThreadLocal<ClassFileBuffer>() {
+      @Override
+      protected ClassFileBuffer initialValue() {
+        return new ClassFileBuffer();
+      }
+    };
+    
+    byte[] bytes = new byte[INITIAL_SIZE];
+    int length = 0;
+    
+    static ClassFileBuffer get() {
+      return BUFFERS.get();
+    }
+    
+    /** Reads the whole stream (does not close it). The size (or {@code -1} if unknown) is only a hint. */
+    void readFrom(InputStream in, long size) throws IOException {
+      if (bytes.length > MAX_KEPT_SIZE) {
+        // don't keep the buffer of a huge class file forever (a reader may also still refer to it):
+        bytes = new byte[INITIAL_SIZE];
+      }
+      length = 0;
+      final long hint = (size >= 0L) ? size : in.available();
+      if (hint >= bytes.length && hint < Integer.MAX_VALUE - 8) {
+        // one more byte, so the end of the stream is detected without growing:
+        bytes = new byte[(int) hint + 1];
+      }
+      for (int read; (read = in.read(bytes, length, bytes.length - length)) != -1;) {
+        length += read;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length << 1);
+        }
+      }
+    }
+    
+    /** Returns a copy of the bytes read, which is not affected by reading the next class file. */
+    byte[] copyBytes() {
+      return Arrays.copyOf(bytes, length);
+    }
   }
 
 }
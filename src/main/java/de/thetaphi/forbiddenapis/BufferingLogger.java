@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the logger of the build tool, which may not be thread safe (e.g., Ant's or Maven's). Worker threads
+ * collect their messages per class (see {@link #startBuffering()}), so the reporting thread can log them
+ * together with the violations of the class, in the same order as a sequential run. All other messages are
+ * passed to the wrapped logger, one at a time.
+ */
+final class BufferingLogger implements Logger {
+
+  private static final int ERROR = 0, WARN = 1, INFO = 2;
+
+  private final Logger delegate;
+  private final ThreadLocal<List<Message>> buffer = new ThreadLocal<List<Message>>();
+
+  BufferingLogger(Logger delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Collects the following messages of the current thread, until {@link #stopBuffering()} is called. */
+  void startBuffering() {
+    buffer.set(new ArrayList<Message>());
+  }
+
+  /** Returns the messages collected by the current thread since {@link #startBuffering()}. */
+  List<Message> stopBuffering() {
+    final List<Message> messages = buffer.get();
+    buffer.remove();
+    return messages;
+  }
+
+  /** Logs the given collected messages. */
+  synchronized void replay(List<Message> messages) {
+    for (final Message m : messages) {
+      log(m.level, m.msg);
+    }
+  }
+
+  @Override
+  public void error(String msg) {
+    logOrBuffer(ERROR, msg);
+  }
+
+  @Override
+  public void warn(String msg) {
+    logOrBuffer(WARN, msg);
+  }
+
+  @Override
+  public void info(String msg) {
+    logOrBuffer(INFO, msg);
+  }
+
+  private void logOrBuffer(int level, String msg) {
+    final List<Message> messages = buffer.get();
+    if (messages != null) {
+      messages.add(new Message(level, msg));
+    } else synchronized (this) {
+      log(level, msg);
+    }
+  }
+
+  private void log(int level, String msg) {
+    switch (level) {
+      case ERROR:
+        delegate.error(msg);
+        break;
+      case WARN:
+        delegate.warn(msg);
+        break;
+      default:
+        delegate.info(msg);
+    }
+  }
+
+  /** A collected message. */
+  static final class Message {
+    final int level;
+    final String msg;
+
+    Message(int level, String msg) {
+      this.level = level;
+      this.msg = msg;
+    }
+  }
+
+}
@@ -22,22 +22,34 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.File;
 import java.io.StringReader;
+import java.io.Writer;
 import java.net.JarURLConnection;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -46,11 +58,23 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.lang.annotation.Annotation;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 /**
  * Forbidden APIs checker class.
@@ -69,29 +93,82 @@ public final class Checker implements RelatedClassLookup, Constants {
   private final long start;
   private final NavigableSet<String> runtimePaths;
     
-  final Logger logger;
+  // the messages of worker threads are collected per class (see runParallel):
+  final BufferingLogger logger;
   
   final ClassLoader loader;
   final java.lang.reflect.Method method_Class_getModule, method_Module_getName;
+  // the jrt:/ filesystem of the Java 9+ runtime (null for older runtimes) or the target runtime (null if not yet opened):
+  private RuntimeImage runtimeImage;
   final EnumSet<Option> options;
   
   // key is the binary name (dotted):
-  final Map<String,ClassSignature> classesToCheck = new HashMap<String,ClassSignature>();
-  // key is the binary name (dotted):
-  final Map<String,ClassSignature> classpathClassCache = new HashMap<String,ClassSignature>();
+  final Map<String,ClassSignature> classesToCheck = new ConcurrentHashMap<String,ClassSignature>();
+  // key is the binary name (dotted), value is the class file; in streaming mode those are parsed again while scanning:
+  final Map<String,File> streamedClassFiles = new ConcurrentHashMap<String,File>();
+  // key is the binary name (dotted), value is the task loading the class (the task fails with ClassNotFoundException for missing classes):
+  final ConcurrentMap<String,FutureTask<ClassSignature>> classpathClassCache = new ConcurrentHashMap<String,FutureTask<ClassSignature>>();
   
   // if enabled, the bundled signature to enable heuristics for detection of non-portable runtime calls is used:
   private boolean forbidNonPortableRuntime = false;  
-  // key is the internal name (slashed), followed by \000 and the field name:
-  final Map<String,String> forbiddenFields = new HashMap<String,String>();
-  // key is the internal name (slashed), followed by \000 and the method signature:
-  final Map<String,String> forbiddenMethods = new HashMap<String,String>();
+  // key is the internal name (slashed), inner key is the field name:
+  final Map<String,Map<String,String>> forbiddenFields = new ConcurrentHashMap<String,Map<String,String>>();
+  // key is the internal name (slashed), inner keys are the method name and its descriptor:
+  final Map<String,Map<String,Map<String,String>>> forbiddenMethods = new ConcurrentHashMap<String,Map<String,Map<String,String>>>();
   // key is the internal name (slashed):
-  final Map<String,String> forbiddenClasses = new HashMap<String,String>();
+  final Map<String,String> forbiddenClasses = new ConcurrentHashMap<String,String>();
   // set of patterns of forbidden classes:
   final Set<ClassPatternRule> forbiddenClassPatterns = new LinkedHashSet<ClassPatternRule>();
+  // all class patterns compiled into a single matcher, created when the check starts:
+  private ClassPatternMatcher classPatternMatcher;
+  // resolutions of method/field references and supertypes shared by all checked classes, created when the check starts:
+  private ResolutionCache resolutionCache;
   // descriptors (not internal names) of all annotations that suppress:
   final Set<String> suppressAnnotations = new LinkedHashSet<String>();
+  // all signatures in the order they were added (before resolving), used to identify the configuration for incremental checks:
+  private final List<String> addedSignatures = new ArrayList<String>();
+  // bundled signatures of methods and fields, which are resolved when their class is loaded; key is the binary name (dotted):
+  private final Map<String,List<ParsedSignature>> lazySignatures = new HashMap<String,List<ParsedSignature>>();
+  // binary names (dotted) of all classes loaded so far (guarded by lazySignatures):
+  private final Set<String> loadedClasses = new HashSet<String>();
+  
+  // number of threads used to scan classes (1 = sequential, <= 0 = number of processors):
+  private int threads = 1;
+  // directory for persistent caches (null if disabled):
+  private File cacheDir = null;
+  // persistent cache for signatures of runtime classes (null if disabled):
+  private SignatureCacheFile runtimeCache = null;
+  // persistent caches for signatures of classes in JAR files (value is null if the cache could not be opened):
+  private final Map<File,SignatureCacheFile> jarCaches = new HashMap<File,SignatureCacheFile>();
+  // in-memory cache shared with other instances (null if disabled):
+  private ClassCache classCache = null;
+  // classes of the runtime and of the JAR files in the shared cache (guarded by jarCaches):
+  private ConcurrentMap<String,ClassSignature> sharedRuntimeClasses = null;
+  private final Map<File,ConcurrentMap<String,ClassSignature>> sharedJarClasses = new HashMap<File,ConcurrentMap<String,ClassSignature>>();
+  // index of the class files on the ClassLoader's own classpath (null if not yet opened or the ClassLoader does not allow it):
+  private ClasspathIndex classpathIndex = null;
+  private boolean classpathIndexOpened = false;
+  // if the runtime classes are read from a different JDK installation or ct.sym release (null/0 if not set):
+  private File targetJavaHome = null;
+  private int targetRelease = 0;
+  private boolean targetRuntime = false;
+  private String targetIdentity = null;
+  
+  // if true, class files are only indexed when added and read again while scanning:
+  private boolean streaming = false;
+  // file to store the results for incremental checks (null if disabled):
+  private File incrementalStateFile = null;
+  // results of the previous and the current run, only available while running incremental checks:
+  private IncrementalState previousState = null, currentState = null;
+  private final AtomicInteger unchangedClasses = new AtomicInteger();
+  // file to write the violations to (null if disabled):
+  private File reportFile = null;
+  // all reported lines, only available while running with a report file:
+  private List<String> reportLines = null;
+  
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+  private static final String RUNTIME_CACHE_FILE = "runtime-classes.bin";
+  private static final String JAR_CACHE_DIR = "jars";
     
   private static enum UnresolvableReporting {
     FAIL() {
@@ -121,7 +198,7 @@ public final class Checker implements RelatedClassLookup, Constants {
   }
   
   public Checker(Logger logger, ClassLoader loader, EnumSet<Option> options) {
-    this.logger = logger;
+    this.logger = new BufferingLogger(logger);
     this.loader = loader;
     this.options = options;
     this.start = System.currentTimeMillis();
@@ -143,6 +220,7 @@ public final class Checker implements RelatedClassLookup, Constants {
     }
     this.method_Class_getModule = method_Class_getModule;
     this.method_Module_getName = method_Module_getName;
+    this.runtimeImage = isSupportedJDK ? RuntimeImage.open() : null;
     
     final NavigableSet<String> runtimePaths = new TreeSet<String>();
     
@@ -218,8 +296,9 @@ public final class Checker implements RelatedClassLookup, Constants {
     this.isSupportedJDK = isSupportedJDK;
   }
   
-  /** Loads the class from Java9's module system and uses reflection to get methods and fields. */
-  private ClassSignature loadClassFromJigsaw(String classname) throws IOException {
+  /** Loads the class from Java9's module system and uses reflection to get methods and fields.
+   * This is only used as fallback, if the bytecode of a runtime class cannot be parsed by ASM. */
+  private ClassSignature loadClassFromJigsaw(String classname, ClassLoader loader) throws IOException {
     if (method_Class_getModule == null || method_Module_getName == null) {
       return null; // not Jigsaw Module System
     }
@@ -234,7 +313,11 @@ public final class Checker implements RelatedClassLookup, Constants {
       return null; // not found
     }
     
-    return new ClassSignature(clazz, AsmUtils.isRuntimeModule(moduleName));
+    final boolean isRuntimeClass = AsmUtils.isRuntimeModule(moduleName);
+    if (isRuntimeClass && targetRuntime) {
+      return null; // the running JVM's runtime classes are not used
+    }
+    return new ClassSignature(clazz, isRuntimeClass);
   }
   
   private boolean isRuntimePath(URL url) throws IOException {
@@ -251,6 +334,100 @@ public final class Checker implements RelatedClassLookup, Constants {
     }
   }
   
+  /** Returns the local JAR file of a {@code jar:file:...!/entry} URL, or {@code null} if the URL does not point into a local JAR file. */
+  private static File getJarFile(URL url) {
+    if (!"jar".equalsIgnoreCase(url.getProtocol())) {
+      return null;
+    }
+    final String spec = url.getFile();
+    final int p = spec.indexOf("!/");
+    if (p < 0) {
+      return null;
+    }
+    try {
+      final URL jarUrl = new URL(spec.substring(0, p));
+      return "file".equalsIgnoreCase(jarUrl.getProtocol()) ? new File(jarUrl.toURI()) : null;
+    } catch (MalformedURLException e) {
+      return null;
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+  
+  /** Returns the local JAR file the given URL points into, if its classes can be cached. Returns {@code null},
+   * if caching is disabled, the URL does not refer to a local JAR file, or the JAR file is part of the runtime. */
+  private File getCacheableJar(URL url) throws IOException {
+    if (cacheDir == null && classCache == null) {
+      return null;
+    }
+    final File jar = getJarFile(url);
+    if (jar == null || isRuntimePath(jar.toURI().toURL())) {
+      return null;
+    }
+    return jar;
+  }
+  
+  /** Returns the signature of a class (binary name) in the given JAR file from the shared or persistent cache, or {@code null} if not cached. */
+  private ClassSignature getCachedJarClass(File jar, String clazz) throws IOException {
+    final ConcurrentMap<String,ClassSignature> shared = getSharedJarClasses(jar);
+    ClassSignature c = (shared == null) ? null : shared.get(clazz);
+    if (c == null) {
+      final SignatureCacheFile jarCache = getJarCache(jar);
+      c = (jarCache == null) ? null : jarCache.get(clazz);
+      if (c != null && shared != null) {
+        shared.putIfAbsent(clazz, c);
+      }
+    }
+    return c;
+  }
+  
+  /** Adds the signature of a class (binary name) in the given JAR file to the shared and persistent caches. */
+  private void cacheJarClass(File jar, String clazz, ClassSignature c) throws IOException {
+    final ConcurrentMap<String,ClassSignature> shared = getSharedJarClasses(jar);
+    if (shared != null) {
+      shared.putIfAbsent(clazz, c);
+    }
+    final SignatureCacheFile jarCache = getJarCache(jar);
+    if (jarCache != null) {
+      jarCache.add(c);
+    }
+  }
+  
+  /** Returns the classes of the given JAR file in the shared cache, or {@code null} if there is no shared cache. */
+  private ConcurrentMap<String,ClassSignature> getSharedJarClasses(File jar) throws IOException {
+    final ClassCache classCache = this.classCache;
+    if (classCache == null) {
+      return null;
+    }
+    synchronized (jarCaches) {
+      ConcurrentMap<String,ClassSignature> classes = sharedJarClasses.get(jar);
+      if (classes == null) {
+        // the JAR file's state is only checked once per instance:
+        sharedJarClasses.put(jar, classes = classCache.getJarClasses(jar));
+      }
+      return classes;
+    }
+  }
+  
+  /** Returns the persistent cache of the given JAR file (which must not be part of the runtime). Returns {@code null}, if caching is disabled. */
+  private SignatureCacheFile getJarCache(File jar) throws IOException {
+    final File cacheDir = this.cacheDir;
+    if (cacheDir == null) {
+      return null;
+    }
+    synchronized (jarCaches) {
+      if (jarCaches.containsKey(jar)) {
+        return jarCaches.get(jar);
+      }
+      // the JAR file is identified by its path, size, and modification time; the file name is derived from its path:
+      final String path = jar.getCanonicalPath();
+      final File file = new File(new File(cacheDir, JAR_CACHE_DIR), jar.getName() + "-" + AsmUtils.hash(path).substring(0, 16) + ".bin");
+      final SignatureCacheFile cache = SignatureCacheFile.open(file, path + '\n' + jar.length() + '\n' + jar.lastModified());
+      jarCaches.put(jar, cache);
+      return cache;
+    }
+  }
+  
   private boolean isRuntimeClass(URLConnection conn) throws IOException {
     final URL url = conn.getURL();
     if (isRuntimePath(url)) {
@@ -265,62 +442,267 @@ public final class Checker implements RelatedClassLookup, Constants {
     return false;
   }
   
-  /** Reads a class (binary name) from the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked. */
+  /** Reads a class (binary name) from the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked.
+   * This method is thread safe: each class is only loaded once, concurrent callers asking for the same class wait for the result. */
   private ClassSignature getClassFromClassLoader(final String clazz) throws ClassNotFoundException,IOException {
-    if (classpathClassCache.containsKey(clazz)) {
-      final ClassSignature c = classpathClassCache.get(clazz);
-      if (c == null) {
+    FutureTask<ClassSignature> task = classpathClassCache.get(clazz);
+    if (task == null) {
+      final FutureTask<ClassSignature> newTask = new FutureTask<ClassSignature>(new Callable<ClassSignature>() {
+        @Override
+        public ClassSignature call() throws ClassNotFoundException,IOException {
+          final ClassSignature c = loadClassFromClassLoader(clazz);
+          resolveLazySignatures(clazz, c);
+          return c;
+        }
+      });
+      task = classpathClassCache.putIfAbsent(clazz, newTask);
+      if (task == null) {
+        task = newTask;
+        task.run();
+      }
+    }
+    try {
+      return task.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for class to be loaded: " + clazz);
+    } catch (ExecutionException ee) {
+      final Throwable cause = ee.getCause();
+      if (cause instanceof ClassNotFoundException) {
+        // negative result stays in cache:
         throw new ClassNotFoundException(clazz);
       }
+      // don't cache other failures, so they are reported again:
+      classpathClassCache.remove(clazz, task);
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Failed to load class: " + clazz, cause);
+    }
+  }
+  
+  /** Loads a class (binary name) from the persistent cache or the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked. */
+  private ClassSignature loadClassFromClassLoader(final String clazz) throws ClassNotFoundException,IOException {
+    final ConcurrentMap<String,ClassSignature> sharedRuntimeClasses;
+    synchronized (jarCaches) {
+      sharedRuntimeClasses = this.sharedRuntimeClasses;
+    }
+    ClassSignature c = (sharedRuntimeClasses == null) ? null : sharedRuntimeClasses.get(clazz);
+    if (c != null) {
       return c;
+    }
+    final SignatureCacheFile runtimeCache = this.runtimeCache;
+    c = (runtimeCache == null) ? null : runtimeCache.get(clazz);
+    if (c == null) {
+      c = readClassFromClassLoader(clazz);
+      if (runtimeCache != null && c.isRuntimeClass) {
+        runtimeCache.add(c);
+      }
+    }
+    if (sharedRuntimeClasses != null && c.isRuntimeClass) {
+      sharedRuntimeClasses.putIfAbsent(clazz, c);
+    }
+    return c;
+  }
+  
+  /**
+   * Returns the index of the classpath of our {@link ClassLoader}, if it is one of the JDK's {@link URLClassLoader}s
+   * with a parent (those are not customized and look up resources from their parent first, then from their URLs in order).
+   * Returns {@code null} for all other ClassLoaders, or if a classpath element is not a local file or part of the runtime.
+   */
+  private synchronized ClasspathIndex getClasspathIndex() throws IOException {
+    if (!classpathIndexOpened) {
+      classpathIndexOpened = true;
+      if (loader instanceof URLClassLoader && loader.getClass().getClassLoader() == null && loader.getParent() != null) {
+        final List<File> classpath = new ArrayList<File>();
+        for (final URL url : ((URLClassLoader) loader).getURLs()) {
+          if (!"file".equalsIgnoreCase(url.getProtocol()) || isRuntimePath(url)) {
+            return null;
+          }
+          try {
+            classpath.add(new File(url.toURI()));
+          } catch (URISyntaxException e) {
+            return null;
+          } catch (IllegalArgumentException e) {
+            return null;
+          }
+        }
+        try {
+          classpathIndex = ClasspathIndex.open(classpath);
+        } catch (IOException ioe) {
+          // the ClassLoader may still be able to read the classpath:
+          logger.warn("Cannot index classpath, falling back to ClassLoader: " + ioe);
+          return null;
+        }
+      }
+    }
+    return classpathIndex;
+  }
+  
+  /** Closes the classpath index (it is opened again on the next lookup). */
+  private synchronized void closeClasspathIndex() {
+    if (classpathIndex != null) try {
+      classpathIndex.close();
+    } catch (IOException ioe) {
+      logger.warn("Cannot close JAR files on classpath: " + ioe);
+    }
+    classpathIndex = null;
+    classpathIndexOpened = false;
+  }
+  
+  /** Returns the target runtime (opened on first use) or the one of the running JVM (if it is Java 9+), otherwise {@code null}. */
+  private synchronized RuntimeImage getRuntimeImage() throws IOException {
+    if (runtimeImage == null && targetRuntime) {
+      runtimeImage = openTargetRuntime(targetJavaHome, targetRelease);
+    }
+    return runtimeImage;
+  }
+  
+  /** Closes the target runtime (it is opened again on the next lookup). */
+  private synchronized void closeTargetRuntime() {
+    if (targetRuntime && runtimeImage != null) try {
+      runtimeImage.close();
+    } catch (IOException ioe) {
+      logger.warn("Cannot close target runtime: " + ioe);
+    }
+    if (targetRuntime) {
+      runtimeImage = null;
+    }
+  }
+  
+  private static RuntimeImage openTargetRuntime(File javaHome, int release) throws IOException {
+    if (release > 0) {
+      return RuntimeImage.openRelease(getCtSymFile(javaHome), release);
     } else {
-      final URL url = loader.getResource(AsmUtils.getClassResourceName(clazz));
-      if (url != null) {
-        final URLConnection conn = url.openConnection();
-        final boolean isRuntimeClass = isRuntimeClass(conn);
+      return RuntimeImage.open(javaHome);
+    }
+  }
+  
+  private static File getCtSymFile(File javaHome) {
+    final File home = (javaHome != null) ? javaHome : new File(System.getProperty("java.home"));
+    return new File(home, "lib/ct.sym");
+  }
+  
+  /**
+   * Returns a string that identifies the contents of the given target runtime (see {@link #setTargetRuntime(File, int)})
+   * without opening it. It does not depend on the location of the installation, so build tools can use it as
+   * a cache key of the results.
+   */
+  public static String getTargetRuntimeIdentity(File javaHome, int release) {
+    if (javaHome == null && release <= 0) {
+      throw new IllegalArgumentException("Either a Java home or a release must be given.");
+    }
+    return (release > 0) ? RuntimeImage.getReleaseIdentity(getCtSymFile(javaHome), release) : RuntimeImage.getIdentity(javaHome);
+  }
+  
+  /** Reads a class (binary name) from the given {@link ClassLoader}. If not found there, falls back to the list of classes to be checked. Not cached!
+   * Classes of a Java 9+ runtime (or the target runtime) are read directly from its {@link RuntimeImage}.
+   * If possible, classes on the ClassLoader's own classpath are read using the {@link ClasspathIndex}. */
+  private ClassSignature readClassFromClassLoader(final String clazz) throws ClassNotFoundException,IOException {
+    final String resourceName = AsmUtils.getClassResourceName(clazz);
+    final RuntimeImage runtimeImage = getRuntimeImage();
+    if (runtimeImage != null) {
+      // packages of the runtime's modules cannot be shadowed by the classpath, so look there first:
+      final RuntimeImage.Resource res = runtimeImage.find(resourceName);
+      if (res != null) {
+        return parseClassFromStream(clazz, res.open(), -1L, res.module == null || AsmUtils.isRuntimeModule(res.module));
+      }
+    }
+    final ClasspathIndex index = getClasspathIndex();
+    URL url;
+    if (index != null) {
+      // our index only covers the ClassLoader's own URLs, the parent comes first (it has the runtime and a small classpath):
+      url = loader.getParent().getResource(resourceName);
+      if (url == null) {
+        final ClasspathIndex.Resource res = index.find(resourceName);
+        if (res != null && !res.multiRelease) {
+          return readClassFromIndex(clazz, res);
+        }
+        if (res != null || !index.isComplete()) {
+          // only the ClassLoader knows the versions of multi-release JARs or reads remote Class-Path entries:
+          url = loader.getResource(resourceName);
+        }
+      }
+    } else {
+      url = loader.getResource(resourceName);
+    }
+    if (url != null) {
+      // if the class is in a JAR file, try to get it from the caches without opening the connection:
+      final File jar = getCacheableJar(url);
+      if (jar != null) {
+        final ClassSignature c = getCachedJarClass(jar, clazz);
+        if (c != null) {
+          return c;
+        }
+      }
+      final URLConnection conn = url.openConnection();
+      final boolean isRuntimeClass = isRuntimeClass(conn);
+      // if a target runtime is used, the class only exists in the running JVM:
+      if (!(isRuntimeClass && targetRuntime)) {
         if (!isRuntimeClass && options.contains(Option.DISABLE_CLASSLOADING_CACHE)) {
           conn.setUseCaches(false);
         }
-        final InputStream in = conn.getInputStream();
-        final ClassReader cr;
-        try {
-          cr = AsmUtils.readAndPatchClass(in);
-        } catch (IllegalArgumentException iae) {
-          // if class is too new for this JVM, we try to load it as Class<?> via Jigsaw
-          // (only if it's a runtime class):
-          if (isRuntimeClass) {
-            final ClassSignature c = loadClassFromJigsaw(clazz);
-            if (c != null) {
-              classpathClassCache.put(clazz, c);
-              return c;
-            }
-          }
-          // unfortunately the ASM IAE has no message, so add good info!
-          throw new IllegalArgumentException(String.format(Locale.ENGLISH,
-              "The class file format of '%s' is too recent to be parsed by ASM.", clazz));
-        } finally {
-          in.close();
+        final ClassSignature c = parseClassFromStream(clazz, conn.getInputStream(), conn.getContentLength(), isRuntimeClass);
+        if (jar != null && !isRuntimeClass) {
+          cacheJarClass(jar, clazz, c);
         }
-        final ClassSignature c = new ClassSignature(cr, isRuntimeClass, false);
-        classpathClassCache.put(clazz, c);
         return c;
-      } else {
-        final ClassSignature c = loadClassFromJigsaw(clazz);
+      }
+    } else {
+      // if the class is not in our index, it can only be found by the parent:
+      final ClassSignature c = loadClassFromJigsaw(clazz, (index != null) ? loader.getParent() : loader);
+      if (c != null) {
+        return c;
+      }
+    }
+    // try to get class from our list of classes we are checking:
+    final ClassSignature c = classesToCheck.get(clazz);
+    if (c != null) {
+      return c;
+    }
+    // all failed => the class does not exist!
+    throw new ClassNotFoundException(clazz);
+  }
+  
+  /** Parses a class (binary name) found by the {@link ClassLoader} or in the {@link RuntimeImage}. Closes the stream when parsed. */
+  private ClassSignature parseClassFromStream(final String clazz, final InputStream in, long size, boolean isRuntimeClass) throws IOException {
+    try {
+      return AsmUtils.readClassSignature(in, size, isRuntimeClass);
+    } catch (IllegalArgumentException iae) {
+      // if the class file cannot be parsed (e.g., it uses a constant pool entry of a future Java version),
+      // we try to load it as Class<?> via Jigsaw (only if it's a runtime class):
+      if (isRuntimeClass) {
+        final ClassSignature c = loadClassFromJigsaw(clazz, loader);
         if (c != null) {
-          classpathClassCache.put(clazz, c);
           return c;
         }
       }
-      // try to get class from our list of classes we are checking:
-      final ClassSignature c = classesToCheck.get(clazz);
+      throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+          "The class file of '%s' cannot be parsed: %s", clazz, iae.getMessage()));
+    } finally {
+      in.close();
+    }
+  }
+  
+  /** Reads a class (binary name) found in the {@link ClasspathIndex}; those are never runtime classes. */
+  private ClassSignature readClassFromIndex(final String clazz, ClasspathIndex.Resource res) throws IOException {
+    if (res.jar != null) {
+      final ClassSignature c = getCachedJarClass(res.jar, clazz);
       if (c != null) {
-        classpathClassCache.put(clazz, c);
         return c;
       }
-      // all failed => the class does not exist!
-      classpathClassCache.put(clazz, null);
-      throw new ClassNotFoundException(clazz);
     }
+    final ClassSignature c = parseClassFromStream(clazz, res.open(), res.size(), false);
+    if (res.jar != null) {
+      cacheJarClass(res.jar, clazz, c);
+    }
+    return c;
   }
   
   @Override
@@ -336,10 +718,7 @@ public final class Checker implements RelatedClassLookup, Constants {
       if (options.contains(Option.FAIL_ON_MISSING_CLASSES)) {
         throw new WrapperRuntimeException(cnfe);
       } else {
-        logger.warn(String.format(Locale.ENGLISH,
-          "The referenced class '%s' cannot be loaded. Please fix the classpath!",
-          type.getClassName()
-        ));
+        warnMissingClass(type.getClassName());
         return null;
       }
     } catch (IOException ioe) {
@@ -347,89 +726,114 @@ public final class Checker implements RelatedClassLookup, Constants {
     }
   }
   
-  /** Adds the method signature to the list of disallowed methods. The Signature is checked against the given ClassLoader. */
-  private void addSignature(final String line, final String defaultMessage, final UnresolvableReporting report) throws ParseException,IOException {
-    final String clazz, field, signature;
-    String message = null;
-    final Method method;
-    int p = line.indexOf('@');
-    if (p >= 0) {
-      signature = line.substring(0, p).trim();
-      message = line.substring(p + 1).trim();
-    } else {
-      signature = line;
-      message = defaultMessage;
-    }
-    p = signature.indexOf('#');
-    if (p >= 0) {
-      clazz = signature.substring(0, p);
-      final String s = signature.substring(p + 1);
-      p = s.indexOf('(');
-      if (p >= 0) {
-        if (p == 0) {
-          throw new ParseException("Invalid method signature (method name missing): " + signature);
-        }
-        // we ignore the return type, its just to match easier (so return type is void):
-        try {
-          method = Method.getMethod("void " + s, true);
-        } catch (IllegalArgumentException iae) {
-          throw new ParseException("Invalid method signature: " + signature);
-        }
-        field = null;
-      } else {
-        field = s;
-        method = null;
-      }
-    } else {
-      clazz = signature;
-      method = null;
-      field = null;
-    }
-    if (message != null && message.isEmpty()) {
-      message = null;
-    }
-    // create printout message:
-    final String printout = (message != null) ? (signature + " [" + message + "]") : signature;
+  private void warnMissingClass(String clazz) {
+    logger.warn(String.format(Locale.ENGLISH,
+      "The referenced class '%s' cannot be loaded. Please fix the classpath!",
+      clazz
+    ));
+  }
+  
+  /** Adds the method signature to the list of disallowed methods. The Signature is checked against the given ClassLoader.
+   * Bundled signatures of methods and fields that are allowed to be unresolvable are resolved lazily, once their class is loaded. */
+  private void addSignature(final ParsedSignature s, final UnresolvableReporting report) throws ParseException,IOException {
+    addedSignatures.add(s.toString());
     // check class & method/field signature, if it is really existent (in classpath), but we don't really load the class into JVM:
-    if (AsmUtils.isGlob(clazz)) {
-      if (method != null || field != null) {
-        throw new ParseException(String.format(Locale.ENGLISH, "Class level glob pattern cannot be combined with methods/fields: %s", signature));
+    if (s.isClassPattern()) {
+      forbiddenClassPatterns.add(new ClassPatternRule(s.clazz, s.message));
+    } else if (report == UnresolvableReporting.SILENT) {
+      if (s.method == null && s.field == null) {
+        // there is no need to resolve the class, just add the signature as class name:
+        forbiddenClasses.put(s.clazz.replace('.', '/'), s.getPrintout());
+      } else {
+        addLazySignature(s);
       }
-      forbiddenClassPatterns.add(new ClassPatternRule(clazz, message));
     } else {
       final ClassSignature c;
       try {
-        c = getClassFromClassLoader(clazz);
+        c = getClassFromClassLoader(s.clazz);
       } catch (ClassNotFoundException cnfe) {
-        report.parseFailed(logger, String.format(Locale.ENGLISH, "Class '%s' not found on classpath", cnfe.getMessage()), signature);
+        report.parseFailed(logger, String.format(Locale.ENGLISH, "Class '%s' not found on classpath", cnfe.getMessage()), s.signature);
         return;
       }
-      if (method != null) {
-        assert field == null;
-        // list all methods with this signature:
-        boolean found = false;
-        for (final Method m : c.methods) {
-          if (m.getName().equals(method.getName()) && Arrays.equals(m.getArgumentTypes(), method.getArgumentTypes())) {
-            found = true;
-            forbiddenMethods.put(c.className + '\000' + m, printout);
-            // don't break when found, as there may be more covariant overrides!
-          }
+      resolveSignature(c, s, report);
+    }
+  }
+  
+  /** Adds a signature of a method or field to the forbidden ones, after its class was loaded. */
+  private void resolveSignature(final ClassSignature c, final ParsedSignature s, final UnresolvableReporting report) throws ParseException {
+    final String printout = s.getPrintout();
+    if (s.method != null) {
+      assert s.field == null;
+      // list all methods with this signature:
+      boolean found = false;
+      for (final Method m : c.methods) {
+        if (m.getName().equals(s.method.getName()) && Arrays.equals(m.getArgumentTypes(), s.method.getArgumentTypes())) {
+          found = true;
+          getMembers(getMembers(forbiddenMethods, c.className), m.getName()).put(m.getDescriptor(), printout);
+          // don't break when found, as there may be more covariant overrides!
         }
-        if (!found) {
-          report.parseFailed(logger, "Method not found", signature);
-          return;
+      }
+      if (!found) {
+        report.parseFailed(logger, "Method not found", s.signature);
+      }
+    } else if (s.field != null) {
+      assert s.method == null;
+      if (!c.fields.contains(s.field)) {
+        report.parseFailed(logger, "Field not found", s.signature);
+        return;
+      }
+      getMembers(forbiddenFields, c.className).put(s.field, printout);
+    } else {
+      assert s.field == null && s.method == null;
+      // only add the signature as class name
+      forbiddenClasses.put(c.className, printout);
+    }
+  }
+  
+  private static <K,V> Map<K,V> getMembers(Map<String,Map<K,V>> map, String key) {
+    Map<K,V> members = map.get(key);
+    if (members == null) {
+      synchronized (map) {
+        members = map.get(key);
+        if (members == null) {
+          map.put(key, members = new ConcurrentHashMap<K,V>());
         }
-      } else if (field != null) {
-        assert method == null;
-        if (!c.fields.contains(field)) {
-          report.parseFailed(logger, "Field not found", signature);
-          return;
+      }
+    }
+    return members;
+  }
+  
+  /** Registers a signature of a method or field to be resolved once its class is loaded. If the class was already loaded, it is resolved immediately. */
+  private void addLazySignature(final ParsedSignature s) throws ParseException,IOException {
+    synchronized (lazySignatures) {
+      if (!loadedClasses.contains(s.clazz)) {
+        List<ParsedSignature> list = lazySignatures.get(s.clazz);
+        if (list == null) {
+          lazySignatures.put(s.clazz, list = new ArrayList<ParsedSignature>());
         }
-        forbiddenFields.put(c.className + '\000' + field, printout);
-      } else {
-        assert field == null && method == null;
-        // only add the signature as class name
-        forbiddenClasses.put(c.className, printout);
+        list.add(s);
+        return;
+      }
+    }
+    try {
+      resolveSignature(getClassFromClassLoader(s.clazz), s, UnresolvableReporting.SILENT);
+    } catch (ClassNotFoundException cnfe) {
+      // cannot happen, the class was already loaded; ignore like any unresolvable signature
+    }
+  }
+  
+  /** Resolves the pending signatures of the given class (binary name), which was just loaded. */
+  private void resolveLazySignatures(final String clazz, final ClassSignature c) {
+    final List<ParsedSignature> pending;
+    synchronized (lazySignatures) {
+      loadedClasses.add(clazz);
+      pending = lazySignatures.remove(clazz);
+    }
+    if (pending != null) {
+      for (final ParsedSignature s : pending) try {
+        resolveSignature(c, s, UnresolvableReporting.SILENT);
+      } catch (ParseException pe) {
+        throw new AssertionError(pe); // cannot happen, unresolvable signatures are ignored
       }
     }
   }
@@ -475,19 +879,52 @@ public final class Checker implements RelatedClassLookup, Constants {
       return;
     }
     name = fixTargetVersion(name);
-    // use Checker.class hardcoded (not getClass) so we have a fixed package name:
-    InputStream in = Checker.class.getResourceAsStream("signatures/" + name + ".txt");
     // automatically expand the compiler version in here (for jdk-* signatures without version):
-    if (in == null && jdkTargetVersion != null && name.startsWith("jdk-") && !name.matches(".*?\\-\\d+(\\.\\d+)*")) {
+    if (!hasBundledSignatures(name) && jdkTargetVersion != null && name.startsWith("jdk-") && !name.matches(".*?\\-\\d+(\\.\\d+)*")) {
       name = name + "-" + jdkTargetVersion;
       name = fixTargetVersion(name);
-      in = Checker.class.getResourceAsStream("signatures/" + name + ".txt");
     }
+    final ClassCache classCache = this.classCache;
+    if (classCache == null) {
+      readBundledSignatures(name, logging, new SignaturesHandler(true));
+      return;
+    }
+    // bundled signatures never change, so parse them only once for all checkers sharing the cache:
+    SignaturesParser.Recording recording = classCache.getBundledSignatures(name);
+    if (recording == null) {
+      recording = new SignaturesParser.Recording();
+      readBundledSignatures(name, logging, recording);
+      classCache.putBundledSignatures(name, recording);
+    } else if (logging) {
+      logger.info("Reading bundled API signatures: " + name);
+    }
+    recording.replay(new SignaturesHandler(true));
+  }
+  
+  private void readBundledSignatures(String name, boolean logging, SignaturesParser.Handler handler) throws IOException,ParseException {
+    // prefer the precompiled form, created by the build:
+    final InputStream compiled = getBundledSignaturesResource(name, ".bin");
+    if (compiled != null) {
+      if (logging) logger.info("Reading bundled API signatures: " + name);
+      SignaturesParser.parseCompiled(compiled, handler);
+      return;
+    }
+    final InputStream in = getBundledSignaturesResource(name, ".txt");
     if (in == null) {
       throw new FileNotFoundException("Bundled signatures resource not found: " + name);
     }
     if (logging) logger.info("Reading bundled API signatures: " + name);
-    parseSignaturesFile(in, true);
+    SignaturesParser.parse(new InputStreamReader(in, "UTF-8"), true, handler);
+  }
+  
+  private static InputStream getBundledSignaturesResource(String name, String suffix) {
+    // use Checker.class hardcoded (not getClass) so we have a fixed package name:
+    return Checker.class.getResourceAsStream("signatures/" + name + suffix);
+  }
+  
+  private static boolean hasBundledSignatures(String name) {
+    return Checker.class.getResource("signatures/" + name + ".bin") != null ||
+        Checker.class.getResource("signatures/" + name + ".txt") != null;
   }
   
   /** Reads a list of API signatures. Closes the Reader when done (on Exception, too)! */
@@ -516,45 +953,51 @@ public final class Checker implements RelatedClassLookup, Constants {
     parseSignaturesFile(new InputStreamReader(in, "UTF-8"), allowBundled);
   }
 
-  private static final String BUNDLED_PREFIX = "@includeBundled ";
-  private static final String DEFAULT_MESSAGE_PREFIX = "@defaultMessage ";
-  private static final String IGNORE_UNRESOLVABLE_LINE = "@ignoreUnresolvable";
-
   private void parseSignaturesFile(Reader reader, boolean isBundled) throws IOException,ParseException {
-    final BufferedReader r = new BufferedReader(reader);
-    try {
-      String line, defaultMessage = null;
-      UnresolvableReporting reporter = options.contains(Option.FAIL_ON_UNRESOLVABLE_SIGNATURES) ? UnresolvableReporting.FAIL : UnresolvableReporting.WARNING;
-      while ((line = r.readLine()) != null) {
-        line = line.trim();
-        if (line.length() == 0 || line.startsWith("#"))
-          continue;
-        if (line.startsWith("@")) {
-          if (isBundled && line.startsWith(BUNDLED_PREFIX)) {
-            final String name = line.substring(BUNDLED_PREFIX.length()).trim();
-            addBundledSignatures(name, null, false);
-          } else if (line.startsWith(DEFAULT_MESSAGE_PREFIX)) {
-            defaultMessage = line.substring(DEFAULT_MESSAGE_PREFIX.length()).trim();
-            if (defaultMessage.length() == 0) defaultMessage = null;
-          } else if (line.equals(IGNORE_UNRESOLVABLE_LINE)) {
-            reporter = isBundled ? UnresolvableReporting.SILENT : UnresolvableReporting.WARNING;
-          } else {
-            throw new ParseException("Invalid line in signature file: " + line);
-          }
-        } else {
-          addSignature(line, defaultMessage, reporter);
-        }
+    SignaturesParser.parse(reader, isBundled, new SignaturesHandler(isBundled));
+  }
+  
+  /** Adds the contents of a signatures file. */
+  private final class SignaturesHandler implements SignaturesParser.Handler {
+    private final boolean isBundled;
+    
+    SignaturesHandler(boolean isBundled) {
+      this.isBundled = isBundled;
+    }
+    
+    @Override
+    public void includeBundled(String name) throws IOException,ParseException {
+      addBundledSignatures(name, null, false);
+    }
+    
+    @Override
+    public void addSignature(ParsedSignature signature, boolean ignoreUnresolvable) throws IOException,ParseException {
+      final UnresolvableReporting reporter;
+      // ct.sym only contains the public API, but bundled signatures may also refer to other members:
+      if (ignoreUnresolvable || (isBundled && targetRelease > 0)) {
+        reporter = isBundled ? UnresolvableReporting.SILENT : UnresolvableReporting.WARNING;
+      } else {
+        reporter = options.contains(Option.FAIL_ON_UNRESOLVABLE_SIGNATURES) ? UnresolvableReporting.FAIL : UnresolvableReporting.WARNING;
       }
-    } finally {
-      r.close();
+      Checker.this.addSignature(signature, reporter);
     }
   }
   
   /** Parses and adds a class from the given stream to the list of classes to check. Closes the stream when parsed (on Exception, too)! Does not log anything. */
   public void addClassToCheck(final InputStream in, String name) throws IOException {
-    final ClassReader reader;
+    final ClassReader reader = readClassToCheck(in, name, -1L, true);
+    final String binaryName = Type.getObjectType(reader.getClassName()).getClassName();
+    classesToCheck.put(binaryName, new ClassSignature(reader, false, true));
+  }
+  
+  /**
+   * Parses a class from the given stream. If {@code keepBytecode} is false, the reader may only be used to create a {@link ClassSignature}
+   * without bytecode, before the current thread reads the next class file (see {@link AsmUtils#readClassTransient(InputStream, long)}).
+   * Closes the stream when parsed (on Exception, too)!
+   */
+  private static ClassReader readClassToCheck(final InputStream in, String name, long size, boolean keepBytecode) throws IOException {
     try {
-      reader = AsmUtils.readAndPatchClass(in);
+      return keepBytecode ? AsmUtils.readAndPatchClass(in, size) : AsmUtils.readClassTransient(in, size);
     } catch (IllegalArgumentException iae) {
       // unfortunately the ASM IAE has no message, so add good info!
       throw new IllegalArgumentException(String.format(Locale.ENGLISH,
@@ -562,21 +1005,93 @@ public final class Checker implements RelatedClassLookup, Constants {
     } finally {
       in.close();
     }
-    final String binaryName = Type.getObjectType(reader.getClassName()).getClassName();
-    classesToCheck.put(binaryName, new ClassSignature(reader, false, true));
   }
   
-  /** Parses and adds a class from the given file to the list of classes to check. Does not log anything. */
+  /** Parses and adds a class from the given file to the list of classes to check. Does not log anything.
+   * In streaming mode (see {@link #setStreaming(boolean)}), the bytecode is not kept in memory, the file is read again while scanning. */
   public void addClassToCheck(File f) throws IOException {
-    addClassToCheck(new FileInputStream(f), f.toString());
+    putClassToCheck(f, parseClassToCheck(f));
+  }
+  
+  private ClassSignature parseClassToCheck(File f) throws IOException {
+    return new ClassSignature(readClassToCheck(new FileInputStream(f), f.toString(), f.length(), !streaming), false, !streaming);
+  }
+  
+  private void putClassToCheck(File f, ClassSignature c) {
+    final String binaryName = Type.getObjectType(c.className).getClassName();
+    classesToCheck.put(binaryName, c);
+    if (streaming) {
+      streamedClassFiles.put(binaryName, f);
+    }
+  }
+  
+  /**
+   * Parses the given class files with the number of threads given by {@link #setThreads(int)}. The classes
+   * are added in the order of the files (so if a class name appears twice, the last file wins, like when
+   * parsing them one after another).
+   */
+  private void addClassFilesToCheck(Collection<File> files) throws IOException {
+    final int threads = Math.min(getEffectiveThreads(), files.size());
+    if (threads <= 1) {
+      for (final File f : files) {
+        addClassToCheck(f);
+      }
+      return;
+    }
+    final AtomicInteger threadNo = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "forbiddenapis-loader-" + threadNo.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    try {
+      final List<Future<ClassSignature>> results = new ArrayList<Future<ClassSignature>>(files.size());
+      for (final File f : files) {
+        results.add(executor.submit(new Callable<ClassSignature>() {
+          @Override
+          public ClassSignature call() throws IOException {
+            return parseClassToCheck(f);
+          }
+        }));
+      }
+      final Iterator<File> it = files.iterator();
+      for (final Future<ClassSignature> result : results) {
+        final File f = it.next();
+        try {
+          putClassToCheck(f, result.get());
+        } catch (ExecutionException ee) {
+          final Throwable cause = ee.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new IOException("Failed to load class file: " + f, cause);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw (IOException) new InterruptedIOException("Loading class files was interrupted.").initCause(ie);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  /** Parses and adds a multiple class files. */
+  /** Parses and adds a multiple class files. If more than one thread is configured (see {@link #setThreads(int)}), they are parsed in parallel. */
   public void addClassesToCheck(Iterable<File> files) throws IOException {
     logger.info("Loading classes to check...");
+    final List<File> list = new ArrayList<File>();
     for (final File f : files) {
-      addClassToCheck(f);
+      list.add(f);
     }
+    addClassFilesToCheck(list);
   }
 
   /** Parses and adds a multiple class files. */
@@ -584,12 +1099,14 @@ public final class Checker implements RelatedClassLookup, Constants {
     addClassesToCheck(Arrays.asList(files));
   }
 
-  /** Parses and adds a multiple class files. */
+  /** Parses and adds a multiple class files. If more than one thread is configured (see {@link #setThreads(int)}), they are parsed in parallel. */
   public void addClassesToCheck(File basedir, Iterable<String> relativeNames) throws IOException {
     logger.info("Loading classes to check...");
+    final List<File> list = new ArrayList<File>();
     for (final String f : relativeNames) {
-      addClassToCheck(new File(basedir, f));
+      list.add(new File(basedir, f));
     }
+    addClassFilesToCheck(list);
   }
 
   /** Parses and adds a multiple class files. */
@@ -602,9 +1119,20 @@ public final class Checker implements RelatedClassLookup, Constants {
         forbiddenFields.size() + 
         forbiddenClasses.size() + 
         forbiddenClassPatterns.size() +
+        getLazySignaturesCount() +
         (forbidNonPortableRuntime ? 1 : 0);
   }
   
+  private int getLazySignaturesCount() {
+    synchronized (lazySignatures) {
+      int count = 0;
+      for (final List<ParsedSignature> list : lazySignatures.values()) {
+        count += list.size();
+      }
+      return count;
+    }
+  }
+  
   /** Adds the given annotation class for suppressing errors. */
   public void addSuppressAnnotation(Class<? extends Annotation> anno) {
     suppressAnnotations.add(anno.getName());
@@ -615,28 +1143,467 @@ public final class Checker implements RelatedClassLookup, Constants {
     suppressAnnotations.add(annoName);
   }
   
-  /** Parses a class and checks for valid method invocations */
-  private int checkClass(final ClassReader reader, Pattern suppressAnnotationsPattern) {
+  /**
+   * Sets the number of threads used to parse the class files passed to {@code addClassesToCheck()} and to scan
+   * the classes for violations. The default is {@code 1}, which does all work sequentially in the calling thread.
+   * If the value is {@code 0} or negative, the number of available processors is used. Violations are always
+   * reported in the order of the (binary) class names, independent of the number of threads.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+  
+  /**
+   * Enables a persistent cache for the signatures of runtime classes and classes in JAR files
+   * in the given directory (e.g., {@code ~/.cache/forbiddenapis}). The signatures of runtime classes
+   * are stored in a file specific to the JDK build running the checks, those of JAR files in a file
+   * per JAR, which is invalidated when the JAR's size or modification time changes. This way later
+   * runs do not need to parse the bytecode again. New signatures are written to the cache at the end
+   * of {@link #run()}. If the cache cannot be opened, a warning is logged and caching stays disabled.
+   * Pass {@code null} to disable caching (this is the default).
+   */
+  public void setCacheDirectory(File cacheDir) {
+    synchronized (jarCaches) {
+      jarCaches.clear();
+    }
+    this.cacheDir = cacheDir;
+    openRuntimeCache();
+  }
+  
+  /**
+   * Uses the given in-memory cache for the signatures of runtime classes and classes in JAR files. The cache can
+   * be shared with other instances (also running in parallel), so long running processes (e.g., a daemon or a build
+   * of many modules) only need to parse those classes once. It is consulted before the persistent cache
+   * (see {@link #setCacheDirectory(File)}). Pass {@code null} to disable it (this is the default).
+   */
+  public void setClassCache(ClassCache classCache) {
+    synchronized (jarCaches) {
+      this.classCache = classCache;
+      sharedJarClasses.clear();
+      this.sharedRuntimeClasses = (classCache == null) ? null : classCache.getRuntimeClasses(getRuntimeIdentity());
+    }
+  }
+  
+  /** Opens the persistent cache of the running JVM's or the target runtime's classes. */
+  private void openRuntimeCache() {
+    this.runtimeCache = null;
+    if (cacheDir == null) {
+      return;
+    }
+    final File file = new File(new File(cacheDir, getRuntimeCacheName()), RUNTIME_CACHE_FILE);
+    final SignatureCacheFile runtimeCache = SignatureCacheFile.open(file, getRuntimeIdentity());
+    // add all runtime classes that were already loaded (e.g., while checking for a supported JDK):
+    for (final FutureTask<ClassSignature> task : classpathClassCache.values()) {
+      final ClassSignature c = getLoadedClass(task);
+      if (c != null && c.isRuntimeClass) {
+        runtimeCache.add(c);
+      }
+    }
+    this.runtimeCache = runtimeCache;
+  }
+  
+  /**
+   * Enables the streaming mode: Class files added with {@link #addClassToCheck(File)} are only indexed
+   * (name, superclass, interfaces, methods and fields), the bytecode is not kept in memory. While scanning,
+   * each class file is read again from disk, so the memory usage no longer grows with the size of the
+   * bytecode to check. Classes added from an {@link InputStream} are still kept in memory.
+   * The default is {@code false}.
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+  
+  /**
+   * Reads the runtime classes from a different Java version than the one running the checks, so e.g. {@code jdk-deprecated}
+   * and {@code jdk-internal} signatures are applied to the platform the code is compiled for. If {@code release} is positive,
+   * the class signatures of this release are read from the {@code lib/ct.sym} file of the given JDK 9+ (or the running one, if
+   * {@code javaHome} is {@code null}), like {@code javac --release} does; the JDK's own release is not part of this file.
+   * As {@code ct.sym} only contains the public API, bundled signatures referring to other members are ignored.
+   * Otherwise all runtime classes are read from the given JDK or JRE installation. Runtime classes of the running JVM are no
+   * longer used. The persistent cache of runtime classes (see {@link #setCacheDirectory(File)}) is kept separately per target.
+   * This must be called before any signatures or classes to check are added.
+   */
+  public void setTargetRuntime(File javaHome, int release) throws IOException {
+    if (javaHome == null && release <= 0) {
+      throw new IllegalArgumentException("Either a Java home or a release must be given.");
+    }
+    if (!addedSignatures.isEmpty() || !classesToCheck.isEmpty()) {
+      throw new IllegalStateException("The target runtime must be set before adding signatures or classes to check.");
+    }
+    final RuntimeImage image = openTargetRuntime(javaHome, release);
+    if (image.find(AsmUtils.getClassResourceName(Object.class.getName())) == null) {
+      image.close();
+      throw new IOException("Target runtime does not contain java.lang.Object: " + ((javaHome != null) ? javaHome : ("release " + release)));
+    }
+    closeTargetRuntime();
+    synchronized (this) {
+      this.runtimeImage = image;
+      this.targetJavaHome = javaHome;
+      this.targetRelease = release;
+      this.targetIdentity = image.identity;
+      this.targetRuntime = true;
+    }
+    synchronized (jarCaches) {
+      if (classCache != null) {
+        this.sharedRuntimeClasses = classCache.getRuntimeClasses(getRuntimeIdentity());
+      }
+    }
+    // classes already loaded (e.g., while checking for a supported JDK) came from the running JVM:
+    classpathClassCache.clear();
+    synchronized (lazySignatures) {
+      loadedClasses.clear();
+    }
+    openRuntimeCache();
+  }
+  
+  /**
+   * Enables incremental checks by storing the results of each run in the given file. On the next run,
+   * a class is only scanned again, if its bytecode, the signatures, or any of the related classes it
+   * depends on (e.g., its superclasses or the classes of called methods) changed. For all other classes,
+   * the violations of the previous run are reported again. The state is written at the end of {@link #run()}.
+   * Pass {@code null} to disable incremental checks (this is the default).
+   */
+  public void setIncrementalStateFile(File file) {
+    this.incrementalStateFile = file;
+  }
+  
+  /**
+   * Writes all violations to the given file at the end of {@link #run()} (UTF-8 encoded, same format as
+   * the logged errors). The file is written even if there are no violations, so it can be used as output
+   * of build tasks. Pass {@code null} to disable the report (this is the default).
+   */
+  public void setReportFile(File reportFile) {
+    this.reportFile = reportFile;
+  }
+  
+  /** Returns the name of the per-JDK subdirectory in the cache directory. */
+  private String getRuntimeCacheName() {
+    if (targetRuntime) {
+      return "target-" + AsmUtils.hash(getRuntimeIdentity()).substring(0, 16);
+    }
+    return (System.getProperty("java.version") + "-" + System.getProperty("java.vendor")).replaceAll("[^A-Za-z0-9\\.\\-]+", "_");
+  }
+  
+  /** Returns a string that identifies the JDK build, the runtime cache is only valid for this one. */
+  private String getRuntimeIdentity() {
+    if (targetRuntime) {
+      return targetIdentity;
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final String prop : new String[] { "java.runtime.version", "java.vendor", "java.vm.name", "java.vm.version", "java.home" }) {
+      sb.append(prop).append('=').append(System.getProperty(prop)).append('\n');
+    }
+    return sb.toString();
+  }
+  
+  /** Returns the class loaded by the given task, or {@code null} if it is not yet done or failed. */
+  private static ClassSignature getLoadedClass(FutureTask<ClassSignature> task) {
+    if (!task.isDone()) {
+      return null;
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException ee) {
+      return null;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+  
+  private void saveCaches() {
+    final List<SignatureCacheFile> caches = new ArrayList<SignatureCacheFile>();
+    if (runtimeCache != null) {
+      caches.add(runtimeCache);
+    }
+    synchronized (jarCaches) {
+      for (final SignatureCacheFile cache : jarCaches.values()) {
+        if (cache != null) {
+          caches.add(cache);
+        }
+      }
+    }
+    for (final SignatureCacheFile cache : caches) try {
+      cache.save();
+    } catch (IOException ioe) {
+      logger.warn("Cannot write signatures cache '" + cache + "': " + ioe);
+    }
+  }
+  
+  /** Parses a class and checks for valid method invocations. Returns the formatted violations (may contain multiple lines each). */
+  private List<String> checkClass(final ClassReader reader, Pattern suppressAnnotationsPattern, Set<String> dependencies) {
     final String className = Type.getObjectType(reader.getClassName()).getClassName();
-    final ClassScanner scanner = new ClassScanner(this, forbiddenClasses, forbiddenClassPatterns, forbiddenMethods, forbiddenFields, suppressAnnotationsPattern, forbidNonPortableRuntime); 
+    final ClassScanner scanner = new ClassScanner(this, forbiddenClasses, classPatternMatcher, forbiddenMethods, forbiddenFields, suppressAnnotationsPattern, forbidNonPortableRuntime,
+        resolutionCache, dependencies); 
     reader.accept(scanner, ClassReader.SKIP_FRAMES);
     final List<ForbiddenViolation> violations = scanner.getSortedViolations();
-    final Pattern splitter = Pattern.compile(Pattern.quote(ForbiddenViolation.SEPARATOR));
+    final List<String> formatted = new ArrayList<String>(violations.size());
     for (final ForbiddenViolation v : violations) {
-      for (final String line : splitter.split(v.format(className, scanner.getSourceFile()))) {
+      formatted.add(v.format(className, scanner.getSourceFile()));
+    }
+    return formatted;
+  }
+  
+  /** Checks a class (binary name), unless incremental checks are enabled and the class and its related classes did not change since the previous run.
+   * In that case the violations of the previous run are returned. */
+  private List<String> checkClass(final String className, Pattern suppressAnnotationsPattern) {
+    final File f = streamedClassFiles.get(className);
+    if (f == null) {
+      return checkClass(className, classesToCheck.get(className).getReader(), suppressAnnotationsPattern);
+    }
+    final ClassReader reader;
+    try {
+      reader = readClassToCheck(new FileInputStream(f), f.toString(), f.length(), true);
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    }
+    return checkClass(className, reader, suppressAnnotationsPattern);
+  }
+  
+  private List<String> checkClass(final String className, final ClassReader reader, Pattern suppressAnnotationsPattern) {
+    if (currentState == null) {
+      return checkClass(reader, suppressAnnotationsPattern, null);
+    }
+    final String hash = AsmUtils.hash(reader.b);
+    final IncrementalState.Entry entry = previousState.getClass(className);
+    if (entry != null && entry.hash.equals(hash) && isUnchanged(entry.dependencies)) {
+      return reuseResults(className, entry);
+    }
+    // internal names (slashed) of related classes:
+    final Set<String> dependencies = new TreeSet<String>();
+    final List<String> violations = checkClass(reader, suppressAnnotationsPattern, dependencies);
+    for (final String dep : dependencies) {
+      getFingerprint(dep);
+    }
+    currentState.putClass(className, new IncrementalState.Entry(hash, dependencies, violations));
+    return violations;
+  }
+  
+  /** Returns the violations of an unchanged class from the previous run and stores them for the next one. */
+  private List<String> reuseResults(String className, IncrementalState.Entry entry) {
+    unchangedClasses.incrementAndGet();
+    for (final String dep : entry.dependencies) {
+      if (IncrementalState.MISSING.equals(getFingerprint(dep))) {
+        warnMissingClass(Type.getObjectType(dep).getClassName());
+      }
+    }
+    currentState.putClass(className, entry);
+    return entry.violations;
+  }
+  
+  /** Returns true, if none of the given related classes (internal names) changed since the previous run. */
+  private boolean isUnchanged(Set<String> dependencies) {
+    for (final String dep : dependencies) {
+      if (!getFingerprint(dep).equals(previousState.getFingerprint(dep))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /** Returns the fingerprint of a related class (internal name) in the current run. The result is stored in the current state. */
+  private String getFingerprint(String internalName) {
+    final String fingerprint = currentState.getFingerprint(internalName);
+    if (fingerprint != null) {
+      return fingerprint;
+    }
+    String computed;
+    try {
+      computed = getClassFromClassLoader(Type.getObjectType(internalName).getClassName()).getFingerprint();
+    } catch (ClassNotFoundException cnfe) {
+      computed = IncrementalState.MISSING;
+    } catch (IOException ioe) {
+      throw new WrapperRuntimeException(ioe);
+    }
+    return currentState.putFingerprint(internalName, computed);
+  }
+  
+  /** Returns a hash of everything that affects the results of a check, except the classes themselves. */
+  private String getSignaturesHash() {
+    final MessageDigest digest = AsmUtils.newSHA1();
+    final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        // discard, we only need the digest
+      }
+    }, digest));
+    try {
+      out.writeUTF(String.valueOf(Checker.class.getPackage().getImplementationVersion()));
+      out.writeUTF(options.toString());
+      out.writeBoolean(forbidNonPortableRuntime);
+      // the signatures are hashed as declared (the resolved ones depend on related classes, which are tracked separately);
+      // their order is significant, as only the first matching class pattern is reported:
+      out.writeInt(addedSignatures.size());
+      for (final String sig : addedSignatures) {
+        out.writeUTF(sig);
+      }
+      out.writeInt(suppressAnnotations.size());
+      for (final String anno : new TreeSet<String>(suppressAnnotations)) {
+        out.writeUTF(anno);
+      }
+      out.flush();
+    } catch (IOException ioe) {
+      throw new AssertionError(ioe); // cannot happen, we write to memory
+    }
+    return AsmUtils.toHex(digest.digest());
+  }
+  
+  private void readIncrementalState() {
+    final String signaturesHash = getSignaturesHash();
+    IncrementalState state;
+    try {
+      state = IncrementalState.read(incrementalStateFile, signaturesHash);
+    } catch (IOException ioe) {
+      logger.warn("Cannot read state file '" + incrementalStateFile + "', checking all classes: " + ioe);
+      state = new IncrementalState(signaturesHash);
+    }
+    previousState = state;
+    currentState = new IncrementalState(signaturesHash);
+    unchangedClasses.set(0);
+  }
+  
+  private void writeIncrementalState() {
+    try {
+      currentState.write(incrementalStateFile);
+    } catch (IOException ioe) {
+      logger.warn("Cannot write state file '" + incrementalStateFile + "': " + ioe);
+    }
+  }
+  
+  /** Logs the violations of a class, returns number of violations. */
+  private int reportViolations(List<String> violations) {
+    final Pattern splitter = Pattern.compile(Pattern.quote(ForbiddenViolation.SEPARATOR));
+    for (final String v : violations) {
+      for (final String line : splitter.split(v)) {
         logger.error(line);
+        if (reportLines != null) {
+          reportLines.add(line);
+        }
       }
     }
     return violations.size();
   }
   
+  private void writeReport() throws IOException {
+    final File dir = reportFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create directory: " + dir);
+    }
+    final Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8"));
+    try {
+      for (final String line : reportLines) {
+        w.write(line);
+        w.write(LINE_SEPARATOR);
+      }
+    } finally {
+      w.close();
+    }
+  }
+  
+  private int getEffectiveThreads() {
+    return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+  }
+  
+  private int runSequential(Collection<String> classNames, Pattern suppressAnnotationsPattern) {
+    int errors = 0;
+    for (final String className : classNames) {
+      errors += reportViolations(checkClass(className, suppressAnnotationsPattern));
+    }
+    return errors;
+  }
+  
+  /** The log messages and the violations of a class checked by a worker thread. */
+  private static final class ClassResult {
+    final List<BufferingLogger.Message> messages;
+    final List<String> violations;
+    
+    ClassResult(List<BufferingLogger.Message> messages, List<String> violations) {
+      this.messages = messages;
+      this.violations = violations;
+    }
+  }
+  
+  private int runParallel(Collection<String> classNames, final Pattern suppressAnnotationsPattern, int threads) throws ForbiddenApiException {
+    final AtomicInteger threadNo = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "forbiddenapis-scanner-" + threadNo.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    try {
+      final List<Future<ClassResult>> results = new ArrayList<Future<ClassResult>>(classNames.size());
+      for (final String className : classNames) {
+        results.add(executor.submit(new Callable<ClassResult>() {
+          @Override
+          public ClassResult call() {
+            // if the check fails, the messages are lost, but the whole run fails anyway (and the thread is discarded):
+            logger.startBuffering();
+            final List<String> violations = checkClass(className, suppressAnnotationsPattern);
+            return new ClassResult(logger.stopBuffering(), violations);
+          }
+        }));
+      }
+      // report the results in submission order, so the output is identical to the sequential run:
+      int errors = 0;
+      for (final Future<ClassResult> f : results) {
+        try {
+          final ClassResult result = f.get();
+          logger.replay(result.messages);
+          errors += reportViolations(result.violations);
+        } catch (ExecutionException ee) {
+          final Throwable cause = ee.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new ForbiddenApiException("Check for forbidden API calls failed: " + cause, cause);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new ForbiddenApiException("Check for forbidden API calls was interrupted.", ie);
+        }
+      }
+      return errors;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
   public void run() throws ForbiddenApiException {
     logger.info("Scanning classes for violations...");
     int errors = 0;
     final Pattern suppressAnnotationsPattern = AsmUtils.glob2Pattern(suppressAnnotations.toArray(new String[suppressAnnotations.size()]));
+    classPatternMatcher = new ClassPatternMatcher(forbiddenClassPatterns);
+    resolutionCache = new ResolutionCache();
+    // sort by class name, so the report is reproducible:
+    final NavigableSet<String> classNames = new TreeSet<String>(classesToCheck.keySet());
+    final int threads = Math.min(getEffectiveThreads(), classNames.size());
+    if (incrementalStateFile != null) {
+      readIncrementalState();
+    }
+    if (reportFile != null) {
+      reportLines = new ArrayList<String>();
+    }
     try {
-      for (final ClassSignature c : classesToCheck.values()) {
-        errors += checkClass(c.getReader(), suppressAnnotationsPattern);
+      if (threads > 1) {
+        errors = runParallel(classNames, suppressAnnotationsPattern, threads);
+      } else {
+        errors = runSequential(classNames, suppressAnnotationsPattern);
+      }
+      if (currentState != null) {
+        logger.info(String.format(Locale.ENGLISH,
+            "Incremental check: %d of %d class file(s) unchanged since last run, their previous results were reused.",
+            unchangedClasses.get(), classNames.size()));
+        writeIncrementalState();
+      }
+      if (reportLines != null) try {
+        writeReport();
+      } catch (IOException ioe) {
+        throw new ForbiddenApiException("Cannot write report file '" + reportFile + "': " + ioe, ioe);
       }
     } catch (WrapperRuntimeException wre) {
       final Throwable cause = wre.getCause();
@@ -645,11 +1612,19 @@ public final class Checker implements RelatedClassLookup, Constants {
       } else {
         throw new ForbiddenApiException("Check for forbidden API calls failed.");
       }
+    } finally {
+      previousState = currentState = null;
+      reportLines = null;
+      classPatternMatcher = null;
+      resolutionCache = null;
+      closeClasspathIndex();
+      closeTargetRuntime();
+      saveCaches();
     }
     
     final String message = String.format(Locale.ENGLISH, 
         "Scanned %d class file(s) for forbidden API invocations (in %.2fs), %d error(s).",
-        classesToCheck.size(), (System.currentTimeMillis() - start) / 1000.0, errors);
+        classNames.size(), (System.currentTimeMillis() - start) / 1000.0, errors);
     if (options.contains(Option.FAIL_ON_VIOLATION) && errors > 0) {
       logger.error(message);
       throw new ForbiddenApiException("Check for forbidden API calls failed, see log.");
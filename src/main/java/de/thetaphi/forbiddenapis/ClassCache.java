@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory cache of the signatures of runtime classes and classes in JAR files, which can be
+ * shared by several {@link Checker} instances, running one after another or in parallel (e.g., in a
+ * long running process). Runtime classes are kept per runtime, the classes of a JAR file are dropped
+ * when its size or modification time changes. Classes in directories are never cached. In addition,
+ * the parsed contents of bundled signatures are kept, as they never change.
+ * This class is thread safe.
+ * @see Checker#setClassCache(ClassCache)
+ */
+public final class ClassCache {
+
+  /** The classes of a single JAR file, with the state of the file when they were read. */
+  private static final class JarClasses {
+    final long length, lastModified;
+    // key is the binary name (dotted):
+    final ConcurrentMap<String,ClassSignature> classes = new ConcurrentHashMap<String,ClassSignature>();
+
+    JarClasses(long length, long lastModified) {
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+
+  // key is the identity of the runtime (JDK build or target runtime), inner key is the binary name (dotted):
+  private final ConcurrentMap<String,ConcurrentMap<String,ClassSignature>> runtimes = new ConcurrentHashMap<String,ConcurrentMap<String,ClassSignature>>();
+  // key is the canonical path of the JAR file:
+  private final ConcurrentMap<String,JarClasses> jars = new ConcurrentHashMap<String,JarClasses>();
+  // key is the name of the bundled signatures (with version):
+  private final ConcurrentMap<String,SignaturesParser.Recording> bundledSignatures = new ConcurrentHashMap<String,SignaturesParser.Recording>();
+
+  /** Returns the classes of the runtime with the given identity, keyed by binary name. */
+  ConcurrentMap<String,ClassSignature> getRuntimeClasses(String identity) {
+    ConcurrentMap<String,ClassSignature> classes = runtimes.get(identity);
+    if (classes == null) {
+      final ConcurrentMap<String,ClassSignature> newClasses = new ConcurrentHashMap<String,ClassSignature>();
+      classes = runtimes.putIfAbsent(identity, newClasses);
+      if (classes == null) {
+        classes = newClasses;
+      }
+    }
+    return classes;
+  }
+
+  /** Returns the classes of the given JAR file, keyed by binary name. If the file changed since it was last seen, an empty map is returned. */
+  ConcurrentMap<String,ClassSignature> getJarClasses(File jar) throws IOException {
+    final String path = jar.getCanonicalPath();
+    final long length = jar.length(), lastModified = jar.lastModified();
+    JarClasses entry = jars.get(path);
+    if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+      final JarClasses newEntry = new JarClasses(length, lastModified);
+      if (entry == null) {
+        entry = jars.putIfAbsent(path, newEntry);
+        if (entry == null) {
+          entry = newEntry;
+        }
+      } else {
+        jars.replace(path, entry, newEntry);
+        entry = newEntry;
+      }
+    }
+    return entry.classes;
+  }
+
+  /** Returns the parsed contents of the given bundled signatures, or {@code null} if not yet parsed. */
+  SignaturesParser.Recording getBundledSignatures(String name) {
+    return bundledSignatures.get(name);
+  }
+
+  void putBundledSignatures(String name, SignaturesParser.Recording recording) {
+    bundledSignatures.putIfAbsent(name, recording);
+  }
+
+  /** Removes all cached classes and signatures. */
+  public void clear() {
+    runtimes.clear();
+    jars.clear();
+    bundledSignatures.clear();
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Minimal parser for the parts of a class file needed for a {@link ClassSignature} of a related class:
+ * the class names, and the names and descriptors of its fields and methods. Unlike ASM's {@code ClassReader},
+ * it only decodes the strings it needs and skips all attributes, which makes walking the deep class hierarchies
+ * of the runtime cheaper. As no bytecode is read, the class file version is not checked.
+ */
+final class ClassHeaderParser implements Constants {
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  // constant pool tags:
+  private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3, CONSTANT_FLOAT = 4, CONSTANT_LONG = 5,
+    CONSTANT_DOUBLE = 6, CONSTANT_CLASS = 7, CONSTANT_STRING = 8, CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10,
+    CONSTANT_INTERFACE_METHODREF = 11, CONSTANT_NAME_AND_TYPE = 12, CONSTANT_METHOD_HANDLE = 15,
+    CONSTANT_METHOD_TYPE = 16, CONSTANT_DYNAMIC = 17, CONSTANT_INVOKE_DYNAMIC = 18, CONSTANT_MODULE = 19,
+    CONSTANT_PACKAGE = 20;
+
+  // the buffer may be larger than the class file:
+  private final byte[] b;
+  private final int length;
+  // offsets of the constant pool entries (pointing to their tag):
+  private final int[] cpOffsets;
+  private final char[] buf;
+  // offset of the access flags after the constant pool:
+  private final int headerOffset;
+
+  private ClassHeaderParser(byte[] b, int length) {
+    if (length < 10 || readInt(b, 0) != MAGIC) {
+      throw new IllegalArgumentException("Invalid class file header.");
+    }
+    this.b = b;
+    this.length = length;
+    final int count = readUnsignedShort(b, 8);
+    this.cpOffsets = new int[count];
+    int maxStringLength = 0;
+    int offset = 10;
+    for (int i = 1; i < count; i++) {
+      cpOffsets[i] = offset;
+      switch (b[offset]) {
+        case CONSTANT_UTF8:
+          final int len = readUnsignedShort(b, offset + 1);
+          maxStringLength = Math.max(maxStringLength, len);
+          offset += 3 + len;
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          offset += 9;
+          i++; // takes two entries
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACE_METHODREF:
+        case CONSTANT_NAME_AND_TYPE:
+        case CONSTANT_DYNAMIC:
+        case CONSTANT_INVOKE_DYNAMIC:
+          offset += 5;
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          offset += 4;
+          break;
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+        case CONSTANT_MODULE:
+        case CONSTANT_PACKAGE:
+          offset += 3;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown constant pool tag " + b[offset] + " in class file.");
+      }
+    }
+    this.buf = new char[maxStringLength];
+    this.headerOffset = offset;
+  }
+
+  /** Parses the signature of the class file in the first {@code length} bytes of the given array. The array is not kept. */
+  static ClassSignature parse(byte[] b, int length, boolean isRuntimeClass) {
+    try {
+      return new ClassHeaderParser(b, length).parse(isRuntimeClass);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Truncated class file.");
+    }
+  }
+
+  private ClassSignature parse(boolean isRuntimeClass) {
+    int offset = headerOffset + 2;
+    final String className = readClass(offset);
+    final int superIndex = readUnsignedShort(b, offset + 2);
+    final String superName = (superIndex == 0) ? null : readClass(offset + 2);
+    final String[] interfaces = new String[readUnsignedShort(b, offset + 4)];
+    offset += 6;
+    for (int i = 0; i < interfaces.length; i++, offset += 2) {
+      interfaces[i] = readClass(offset);
+    }
+    int count = readUnsignedShort(b, offset);
+    offset += 2;
+    final List<String> fields = new ArrayList<String>(count);
+    for (; count > 0; count--) {
+      fields.add(readUTF8(offset + 2));
+      offset = skipAttributes(offset + 6);
+    }
+    count = readUnsignedShort(b, offset);
+    offset += 2;
+    final List<Method> methods = new ArrayList<Method>(count);
+    final List<String> signaturePolymorphicMethods = new ArrayList<String>();
+    for (; count > 0; count--) {
+      final int access = readUnsignedShort(b, offset);
+      final String name = readUTF8(offset + 2), desc = readUTF8(offset + 4);
+      methods.add(new Method(name, desc));
+      if (className.startsWith(SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
+          (access & Opcodes.ACC_VARARGS) != 0 &&
+          (access & Opcodes.ACC_NATIVE) != 0 &&
+          SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)
+      ) {
+        signaturePolymorphicMethods.add(name);
+      }
+      offset = skipAttributes(offset + 6);
+    }
+    if (offset > length) {
+      throw new IllegalArgumentException("Truncated class file.");
+    }
+    return new ClassSignature(className, superName, interfaces, isRuntimeClass, methods, fields, signaturePolymorphicMethods);
+  }
+
+  private int skipAttributes(int offset) {
+    int count = readUnsignedShort(b, offset);
+    offset += 2;
+    for (; count > 0; count--) {
+      offset += 6 + readInt(b, offset + 2);
+    }
+    return offset;
+  }
+
+  /** Reads the name of the {@code CONSTANT_Class} entry referenced at the given offset. */
+  private String readClass(int offset) {
+    return readUTF8(cpOffsets[checkTag(readUnsignedShort(b, offset), CONSTANT_CLASS)] + 1);
+  }
+
+  /** Decodes the (modified UTF-8) {@code CONSTANT_Utf8} entry referenced at the given offset. */
+  private String readUTF8(int offset) {
+    int pos = cpOffsets[checkTag(readUnsignedShort(b, offset), CONSTANT_UTF8)] + 1;
+    final int end = pos + 2 + readUnsignedShort(b, pos);
+    pos += 2;
+    int len = 0;
+    while (pos < end) {
+      final int c = b[pos++] & 0xFF;
+      if (c < 0x80) {
+        buf[len++] = (char) c;
+      } else if (c < 0xE0) {
+        buf[len++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+      } else {
+        buf[len++] = (char) (((c & 0x0F) << 12) | ((b[pos++] & 0x3F) << 6) | (b[pos++] & 0x3F));
+      }
+    }
+    return new String(buf, 0, len);
+  }
+
+  private int checkTag(int index, int tag) {
+    if (index <= 0 || index >= cpOffsets.length || b[cpOffsets[index]] != tag) {
+      throw new IllegalArgumentException("Invalid constant pool reference " + index + " in class file.");
+    }
+    return index;
+  }
+
+  private static int readUnsignedShort(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+  }
+
+  private static int readInt(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches class names against a list of {@link ClassPatternRule}s in one pass and returns the first matching rule.
+ * The literal prefixes of all globs (up to the first wildcard) are stored in a character trie, so only rules whose prefix
+ * matches the class name are considered. Rules of the form {@code prefix**} (e.g., {@code sun.misc.**}) match without
+ * running a regex. Results are memoized per class name. This class is thread safe.
+ */
+final class ClassPatternMatcher {
+
+  /** A rule with its position in the original list. */
+  private static final class Entry {
+    final int index;
+    final ClassPatternRule rule;
+    final boolean prefixOnly;
+
+    Entry(int index, ClassPatternRule rule, boolean prefixOnly) {
+      this.index = index;
+      this.rule = rule;
+      this.prefixOnly = prefixOnly;
+    }
+  }
+
+  /** A node of the trie. */
+  private static final class Node {
+    final Map<Character,Node> children = new HashMap<Character,Node>();
+    // sorted by index, as the rules are added in order:
+    final List<Entry> entries = new ArrayList<Entry>();
+  }
+
+  // used in the memo for class names that match no rule:
+  private static final Object NO_MATCH = new Object();
+
+  private final Node root = new Node();
+  private final boolean empty;
+  // key is the binary name (dotted), value is the matching rule or NO_MATCH:
+  private final ConcurrentMap<String,Object> memo = new ConcurrentHashMap<String,Object>();
+
+  /** Creates a matcher for the given rules; the order is significant, as only the first matching rule is returned. */
+  ClassPatternMatcher(Iterable<ClassPatternRule> rules) {
+    int index = 0;
+    for (final ClassPatternRule rule : rules) {
+      final String glob = rule.getGlob();
+      int p = 0;
+      Node node = root;
+      for (final int len = glob.length(); p < len; p++) {
+        final char c = glob.charAt(p);
+        if (c == '*' || c == '?') {
+          break;
+        }
+        Node child = node.children.get(c);
+        if (child == null) {
+          node.children.put(c, child = new Node());
+        }
+        node = child;
+      }
+      final boolean prefixOnly = glob.length() == p + 2 && glob.endsWith("**");
+      node.entries.add(new Entry(index++, rule, prefixOnly));
+    }
+    this.empty = (index == 0);
+  }
+
+  /** Returns the first rule matching the given class (binary name, dotted), or {@code null} if none matches. */
+  ClassPatternRule getMatchingRule(String className) {
+    if (empty) {
+      return null;
+    }
+    Object result = memo.get(className);
+    if (result == null) {
+      final ClassPatternRule rule = match(className);
+      result = (rule == null) ? NO_MATCH : rule;
+      memo.put(className, result);
+    }
+    return (result == NO_MATCH) ? null : (ClassPatternRule) result;
+  }
+
+  private ClassPatternRule match(String className) {
+    Entry best = null;
+    Node node = root;
+    for (int p = 0, len = className.length(); node != null; p++) {
+      for (final Entry e : node.entries) {
+        if (best != null && e.index >= best.index) {
+          break;
+        }
+        if (e.prefixOnly || e.rule.matches(className)) {
+          best = e;
+          break;
+        }
+      }
+      node = (p < len) ? node.children.get(className.charAt(p)) : null;
+    }
+    return (best == null) ? null : best.rule;
+  }
+
+}
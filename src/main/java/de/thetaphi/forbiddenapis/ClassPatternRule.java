@@ -38,6 +38,11 @@ public final class ClassPatternRule {
     return pattern.matcher(className).matches();
   }
   
+  /** returns the glob pattern of this rule */
+  public String getGlob() {
+    return glob;
+  }
+  
   /** returns the printout using the message and the given class name */
   public String getPrintout(String className) {
     return message == null ? className : (className + " [" + message + "]");
@@ -22,10 +22,12 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.objectweb.asm.AnnotationVisitor;
@@ -44,14 +46,14 @@ final class ClassScanner extends ClassVisitor implements Constants {
   final RelatedClassLookup lookup;
   final List<ForbiddenViolation> violations = new ArrayList<ForbiddenViolation>();
   
-  // key is the internal name (slashed), followed by \000 and the field name:
-  final Map<String,String> forbiddenFields;
-  // key is the internal name (slashed), followed by \000 and the method signature:
-  final Map<String,String> forbiddenMethods;
+  // key is the internal name (slashed), inner key is the field name:
+  final Map<String,Map<String,String>> forbiddenFields;
+  // key is the internal name (slashed), inner keys are the method name and its descriptor:
+  final Map<String,Map<String,Map<String,String>>> forbiddenMethods;
   // key is the internal name (slashed):
   final Map<String,String> forbiddenClasses;
-  // key is pattern to binary class name:
-  final Iterable<ClassPatternRule> forbiddenClassPatterns;
+  // matches glob patterns on binary class names:
+  final ClassPatternMatcher forbiddenClassPatterns;
   // pattern that matches binary (dotted) class name of all annotations that suppress:
   final Pattern suppressAnnotations;
   
@@ -61,6 +63,13 @@ final class ClassScanner extends ClassVisitor implements Constants {
   String internalMainClassName = null;
   int currentGroupId = 0;
   
+  // memoized resolutions of method/field references and supertypes, shared by all scanners of a run:
+  final ResolutionCache resolutionCache;
+  // internal names (slashed) of all related classes looked up (null if not recorded):
+  private final Set<String> dependencies;
+  // innermost memoized resolution in progress (null if none):
+  private Resolving resolving = null;
+  
   // Mapping from a (possible) lambda Method to groupId of declaring method
   final Map<Method,Integer> lambdas = new HashMap<Method,Integer>();
   
@@ -69,12 +78,15 @@ final class ClassScanner extends ClassVisitor implements Constants {
   boolean classSuppressed = false;
   
   public ClassScanner(RelatedClassLookup lookup,
-      final Map<String,String> forbiddenClasses, final Iterable<ClassPatternRule> forbiddenClassPatterns,
-      final Map<String,String> forbiddenMethods, final Map<String,String> forbiddenFields,
+      final Map<String,String> forbiddenClasses, final ClassPatternMatcher forbiddenClassPatterns,
+      final Map<String,Map<String,Map<String,String>>> forbiddenMethods, final Map<String,Map<String,String>> forbiddenFields,
       final Pattern suppressAnnotations,
-      final boolean forbidNonPortableRuntime) {
+      final boolean forbidNonPortableRuntime,
+      final ResolutionCache resolutionCache, final Set<String> dependencies) {
     super(Opcodes.ASM6);
     this.lookup = lookup;
+    this.resolutionCache = resolutionCache;
+    this.dependencies = dependencies;
     this.forbiddenClasses = forbiddenClasses;
     this.forbiddenClassPatterns = forbiddenClassPatterns;
     this.forbiddenMethods = forbiddenMethods;
@@ -98,6 +110,60 @@ final class ClassScanner extends ClassVisitor implements Constants {
     return source;
   }
   
+  /** Looks up a related class and records it as dependency. */
+  private ClassSignature lookupRelatedClass(String internalName) {
+    final ClassSignature c = lookup.lookupRelatedClass(internalName);
+    if (internalName.charAt(0) != '[') {
+      if (dependencies != null) {
+        dependencies.add(internalName);
+      }
+      if (resolving != null) {
+        resolving.classes.add(internalName);
+        resolving.missingClass |= (c == null);
+      }
+    }
+    return c;
+  }
+  
+  /** Starts recording the related classes looked up for a memoized resolution. Resolutions may be nested. */
+  private void startResolving() {
+    resolving = new Resolving(resolving);
+  }
+  
+  /** Stops recording and returns the resolution; returns {@code null} if it depends on a missing class (so warnings are repeated).
+   * The related classes are also recorded for the enclosing resolution. */
+  private ResolutionCache.Resolution endResolving(String violation) {
+    final Resolving current = resolving;
+    resolving = current.outer;
+    if (resolving != null) {
+      resolving.classes.addAll(current.classes);
+      resolving.missingClass |= current.missingClass;
+    }
+    return current.missingClass ? null : new ResolutionCache.Resolution(violation, current.classes);
+  }
+  
+  /** Records the dependencies of a memoized resolution, as if its related classes were looked up again. */
+  private String replay(ResolutionCache.Resolution r) {
+    if (dependencies != null) {
+      Collections.addAll(dependencies, r.dependencies);
+    }
+    if (resolving != null) {
+      Collections.addAll(resolving.classes, r.dependencies);
+    }
+    return r.violation;
+  }
+  
+  /** The related classes looked up by a memoized resolution in progress. */
+  private static final class Resolving {
+    final Resolving outer;
+    final Set<String> classes = new HashSet<String>();
+    boolean missingClass = false;
+    
+    Resolving(Resolving outer) {
+      this.outer = outer;
+    }
+  }
+  
   String checkClassUse(Type type, String what, boolean deep) {
     while (type.getSort() == Type.ARRAY) {
       type = type.getElementType();
@@ -111,13 +177,12 @@ final class ClassScanner extends ClassVisitor implements Constants {
       return String.format(Locale.ENGLISH, "Forbidden %s use: %s", what, printout);
     }
     final String binaryClassName = type.getClassName();
-    for (final ClassPatternRule r : forbiddenClassPatterns) {
-      if (r.matches(binaryClassName)) {
-        return String.format(Locale.ENGLISH, "Forbidden %s use: %s", what, r.getPrintout(binaryClassName));
-      }
+    final ClassPatternRule r = forbiddenClassPatterns.getMatchingRule(binaryClassName);
+    if (r != null) {
+      return String.format(Locale.ENGLISH, "Forbidden %s use: %s", what, r.getPrintout(binaryClassName));
     }
     if (deep && forbidNonPortableRuntime) {
-      final ClassSignature c = lookup.lookupRelatedClass(internalName);
+      final ClassSignature c = lookupRelatedClass(internalName);
       if (c != null && c.isRuntimeClass && !AsmUtils.isPortableRuntimeClass(binaryClassName)) {
         return String.format(Locale.ENGLISH,
           "Forbidden %s use: %s [non-portable or internal runtime class]",
@@ -128,6 +193,18 @@ final class ClassScanner extends ClassVisitor implements Constants {
     return null;
   }
   
+  /** Looks up a forbidden member without building a combined key. */
+  private static String getForbiddenMember(Map<String,Map<String,String>> map, String owner, String member) {
+    final Map<String,String> members = map.get(owner);
+    return (members == null) ? null : members.get(member);
+  }
+  
+  /** Looks up a forbidden method by its name and descriptor, without creating a {@link Method} instance. */
+  private String getForbiddenMethod(String owner, String name, String desc) {
+    final Map<String,Map<String,String>> methods = forbiddenMethods.get(owner);
+    return (methods == null) ? null : getForbiddenMember(methods, name, desc);
+  }
+  
   String checkClassUse(String internalName, String what) {
     return checkClassUse(Type.getObjectType(internalName), what, true);
   }
@@ -138,8 +215,7 @@ final class ClassScanner extends ClassVisitor implements Constants {
       if (violation != null) {
         return violation;
       }
-      final ClassSignature c = lookup.lookupRelatedClass(superName);
-      if (c != null && (violation = checkClassDefinition(c.superName, c.interfaces)) != null) {
+      if ((violation = checkSupertypes(superName)) != null) {
         return violation;
       }
     }
@@ -149,8 +225,7 @@ final class ClassScanner extends ClassVisitor implements Constants {
         if (violation != null) {
           return violation;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(intf);
-        if (c != null && (violation = checkClassDefinition(c.superName, c.interfaces)) != null) {
+        if ((violation = checkSupertypes(intf)) != null) {
           return violation;
         }
       }
@@ -158,6 +233,23 @@ final class ClassScanner extends ClassVisitor implements Constants {
     return null;
   }
   
+  /** Checks the superclasses and interfaces of the given class (internal name) and returns the first violation.
+   * The result is computed once per class and run. */
+  private String checkSupertypes(String internalName) {
+    final ResolutionCache.Resolution cached = resolutionCache.getSupertypes(internalName);
+    if (cached != null) {
+      return replay(cached);
+    }
+    startResolving();
+    final ClassSignature c = lookupRelatedClass(internalName);
+    final String violation = (c == null) ? null : checkClassDefinition(c.superName, c.interfaces);
+    final ResolutionCache.Resolution r = endResolving(violation);
+    if (r != null) {
+      resolutionCache.putSupertypes(internalName, r);
+    }
+    return violation;
+  }
+  
   String checkType(Type type) {
     while (type != null) {
       String violation;
@@ -167,9 +259,7 @@ final class ClassScanner extends ClassVisitor implements Constants {
           if (violation != null) {
             return violation;
           }
-          final ClassSignature c = lookup.lookupRelatedClass(type.getInternalName());
-          if (c == null) return null;
-          return checkClassDefinition(c.superName, c.interfaces);
+          return checkSupertypes(type.getInternalName());
         case Type.ARRAY:
           type = type.getElementType();
           break;
@@ -329,51 +419,63 @@ final class ClassScanner extends ClassVisitor implements Constants {
         }
       }
       
-      private String checkMethodAccess(String owner, Method method) {
+      private String checkMethodAccess(String owner, String name, String desc) {
+        final ResolutionCache.Resolution cached = resolutionCache.getMethod(owner, name, desc);
+        if (cached != null) {
+          return replay(cached);
+        }
+        startResolving();
+        final String violation = resolveMethodAccess(owner, name, desc);
+        final ResolutionCache.Resolution r = endResolving(violation);
+        if (r != null) {
+          resolutionCache.putMethod(owner, name, desc, r);
+        }
+        return violation;
+      }
+      
+      private String resolveMethodAccess(String owner, String name, String desc) {
         String violation = checkClassUse(owner, "class/interface");
         if (violation != null) {
           return violation;
         }
-        if  (CLASS_CONSTRUCTOR_METHOD_NAME.equals(method.getName())) {
+        if  (CLASS_CONSTRUCTOR_METHOD_NAME.equals(name)) {
           // we don't check for violations on class constructors
           return null;
         }
-        return checkMethodAccessRecursion(owner, method, true);
+        return checkMethodAccessRecursion(owner, name, desc, true);
       }
       
-      private String checkMethodAccessRecursion(String owner, Method method, boolean checkClassUse) {
-        String printout = forbiddenMethods.get(owner + '\000' + method);
+      private String checkMethodAccessRecursion(String owner, String name, String desc, boolean checkClassUse) {
+        // lookup the class first, as this may resolve pending signatures of its methods:
+        final ClassSignature c = lookupRelatedClass(owner);
+        String printout = getForbiddenMethod(owner, name, desc);
         if (printout != null) {
           return "Forbidden method invocation: " + printout;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(owner);
         if (c != null) {
-          if (c.signaturePolymorphicMethods.contains(method.getName())) {
-            // convert the invoked descriptor to a signature polymorphic one for the lookup
-            final Method lookupMethod = new Method(method.getName(), SIGNATURE_POLYMORPHIC_DESCRIPTOR);
-            printout = forbiddenMethods.get(owner + '\000' + lookupMethod);
+          if (c.signaturePolymorphicMethods.contains(name)) {
+            // use the signature polymorphic descriptor instead of the invoked one for the lookup
+            printout = getForbiddenMethod(owner, name, SIGNATURE_POLYMORPHIC_DESCRIPTOR);
             if (printout != null) {
               return "Forbidden method invocation: " + printout;
             }
           }
           String violation;
-          if (checkClassUse && c.methods.contains(method)) {
-            violation = checkClassUse(owner, "class/interface");
-            if (violation != null) {
-              return violation;
-            }
+          // the class use is checked first, so the declared method is only looked up for a violation:
+          if (checkClassUse && (violation = checkClassUse(owner, "class/interface")) != null && c.methods.contains(new Method(name, desc))) {
+            return violation;
           }
-          if (CONSTRUCTOR_METHOD_NAME.equals(method.getName())) {
+          if (CONSTRUCTOR_METHOD_NAME.equals(name)) {
             return null; // don't look into superclasses or interfaces to find constructors!
           }
-          if (c.superName != null && (violation = checkMethodAccessRecursion(c.superName, method, true)) != null) {
+          if (c.superName != null && (violation = checkMethodAccessRecursion(c.superName, name, desc, true)) != null) {
             return violation;
           }
           // JVM spec says: interfaces after superclasses
           if (c.interfaces != null) {
             for (String intf : c.interfaces) {
               // for interfaces we don't check the class use (it is too strict, if just the interface is implemented, but nothing more!):
-              if (intf != null && (violation = checkMethodAccessRecursion(intf, method, false)) != null) {
+              if (intf != null && (violation = checkMethodAccessRecursion(intf, name, desc, false)) != null) {
                 return violation;
               }
             }
@@ -383,26 +485,41 @@ final class ClassScanner extends ClassVisitor implements Constants {
       }
       
       private String checkFieldAccess(String owner, String field) {
+        final ResolutionCache.Resolution cached = resolutionCache.getField(owner, field);
+        if (cached != null) {
+          return replay(cached);
+        }
+        startResolving();
+        final String violation = resolveFieldAccess(owner, field);
+        final ResolutionCache.Resolution r = endResolving(violation);
+        if (r != null) {
+          resolutionCache.putField(owner, field, r);
+        }
+        return violation;
+      }
+      
+      private String resolveFieldAccess(String owner, String field) {
         String violation = checkClassUse(owner, "class/interface");
         if (violation != null) {
           return violation;
         }
-        final String printout = forbiddenFields.get(owner + '\000' + field);
+        // lookup the class first, as this may resolve pending signatures of its fields:
+        final ClassSignature c = lookupRelatedClass(owner);
+        final String printout = getForbiddenMember(forbiddenFields, owner, field);
         if (printout != null) {
           return "Forbidden field access: " + printout;
         }
-        final ClassSignature c = lookup.lookupRelatedClass(owner);
         // if we have seen the field already, no need to look into superclasses (fields cannot override)
         if (c != null && !c.fields.contains(field)) {
           if (c.interfaces != null) {
             for (String intf : c.interfaces) {
-              if (intf != null && (violation = checkFieldAccess(intf, field)) != null) {
+              if (intf != null && (violation = resolveFieldAccess(intf, field)) != null) {
                 return violation;
               }
             }
           }
           // JVM spec says: superclasses after interfaces
-          if (c.superName != null && (violation = checkFieldAccess(c.superName, field)) != null) {
+          if (c.superName != null && (violation = resolveFieldAccess(c.superName, field)) != null) {
             return violation;
           }
         }
@@ -421,14 +538,13 @@ final class ClassScanner extends ClassVisitor implements Constants {
           case Opcodes.H_INVOKESPECIAL:
           case Opcodes.H_NEWINVOKESPECIAL:
           case Opcodes.H_INVOKEINTERFACE:
-            final Method m = new Method(handle.getName(), handle.getDesc());
             if (checkLambdaHandle && handle.getOwner().equals(internalMainClassName) && handle.getName().startsWith(LAMBDA_METHOD_NAME_PREFIX)) {
               // as described in <http://cr.openjdk.java.net/~briangoetz/lambda/lambda-translation.html>,
               // we will record this metafactory call as "lambda" invokedynamic,
               // so we can assign the called lambda with the same groupId like *this* method:
-              lambdas.put(m, currentGroupId);
+              lambdas.put(new Method(handle.getName(), handle.getDesc()), currentGroupId);
             }
-            return checkMethodAccess(handle.getOwner(), m);
+            return checkMethodAccess(handle.getOwner(), handle.getName(), handle.getDesc());
         }
         return null;
       }
@@ -486,7 +602,7 @@ final class ClassScanner extends ClassVisitor implements Constants {
       
       @Override
       public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-        reportMethodViolation(checkMethodAccess(owner, new Method(name, desc)), "method body");
+        reportMethodViolation(checkMethodAccess(owner, name, desc), "method body");
       }
       
       @Override
@@ -18,15 +18,26 @@
 
 package de.thetaphi.forbiddenapis;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Modifier;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.FieldVisitor;
-import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
@@ -52,27 +63,32 @@ final class ClassSignature implements Constants {
     final Set<Method> methods = new HashSet<Method>();
     final Set<String> fields = new HashSet<String>();
     final Set<String> signaturePolymorphicMethods = new HashSet<String>();
-    classReader.accept(new ClassVisitor(Opcodes.ASM6) {
-      @Override
-      public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-        final Method m = new Method(name, desc);
-        methods.add(m);
-        if (className.startsWith(SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
-            (access & Opcodes.ACC_VARARGS) != 0 &&
-            (access & Opcodes.ACC_NATIVE) != 0 &&
-            SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)
-        ) {
-          signaturePolymorphicMethods.add(name);
-        }
-        return null;
-      }
-      
-      @Override
-      public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
-        fields.add(name);
-        return null;
+    // read the field and method tables directly from the class file, instead of visiting it with ASM (which also
+    // parses all attributes). This way, classes to check are only completely parsed once, by the ClassScanner:
+    final char[] buf = new char[classReader.getMaxStringLength()];
+    int offset = classReader.header + 6;
+    offset += 2 + 2 * classReader.readUnsignedShort(offset); // skip interfaces
+    int count = classReader.readUnsignedShort(offset);
+    offset += 2;
+    for (; count > 0; count--) {
+      fields.add(classReader.readUTF8(offset + 2, buf));
+      offset = skipAttributes(classReader, offset + 6);
+    }
+    count = classReader.readUnsignedShort(offset);
+    offset += 2;
+    for (; count > 0; count--) {
+      final int access = classReader.readUnsignedShort(offset);
+      final String name = classReader.readUTF8(offset + 2, buf), desc = classReader.readUTF8(offset + 4, buf);
+      methods.add(new Method(name, desc));
+      if (className.startsWith(SIGNATURE_POLYMORPHIC_PKG_INTERNALNAME) &&
+          (access & Opcodes.ACC_VARARGS) != 0 &&
+          (access & Opcodes.ACC_NATIVE) != 0 &&
+          SIGNATURE_POLYMORPHIC_DESCRIPTOR.equals(desc)
+      ) {
+        signaturePolymorphicMethods.add(name);
       }
-    }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      offset = skipAttributes(classReader, offset + 6);
+    }
     this.methods = createSet(methods);
     this.fields = createSet(fields);
     this.signaturePolymorphicMethods = createSet(signaturePolymorphicMethods);
@@ -114,8 +130,215 @@ final class ClassSignature implements Constants {
     this.signaturePolymorphicMethods = createSet(signaturePolymorphicMethods);
   }
   
-  private static <T> Set<T> createSet(Set<? extends T> s) {
-    return s.isEmpty() ? Collections.<T>emptySet() : Collections.<T>unmodifiableSet(s);
+  /** Internal ctor used when deserializing a signature from a persistent cache (see {@link #readFrom(DataInput)}) or by the {@link ClassHeaderParser}. */
+  ClassSignature(String className, String superName, String[] interfaces, boolean isRuntimeClass,
+      Collection<Method> methods, Collection<String> fields, Collection<String> signaturePolymorphicMethods) {
+    this.reader = null; // no reader available!
+    this.isRuntimeClass = isRuntimeClass;
+    this.className = className;
+    this.superName = superName;
+    this.interfaces = interfaces;
+    this.methods = createSet(methods);
+    this.fields = createSet(fields);
+    this.signaturePolymorphicMethods = createSet(signaturePolymorphicMethods);
+  }
+  
+  /** Writes the signature data (without the {@link ClassReader}) in a compact binary form. */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeUTF(className);
+    out.writeBoolean(isRuntimeClass);
+    out.writeBoolean(superName != null);
+    if (superName != null) {
+      out.writeUTF(superName);
+    }
+    final String[] interfaces = (this.interfaces == null) ? new String[0] : this.interfaces;
+    out.writeInt(interfaces.length);
+    for (final String intf : interfaces) {
+      out.writeUTF(intf);
+    }
+    out.writeInt(methods.size());
+    for (final Method m : methods) {
+      out.writeUTF(m.getName());
+      out.writeUTF(m.getDescriptor());
+    }
+    writeStrings(out, fields);
+    writeStrings(out, signaturePolymorphicMethods);
+  }
+  
+  /** Reads signature data written by {@link #writeTo(DataOutput)}. Throws {@link IOException} if the data is obviously corrupt. */
+  static ClassSignature readFrom(DataInput in) throws IOException {
+    final String className = in.readUTF();
+    final boolean isRuntimeClass = in.readBoolean();
+    final String superName = in.readBoolean() ? in.readUTF() : null;
+    // the array is not allocated upfront, as the count may be corrupt:
+    final int interfaceCount = readCount(in);
+    final List<String> interfaces = new ArrayList<String>();
+    for (int i = 0; i < interfaceCount; i++) {
+      interfaces.add(in.readUTF());
+    }
+    final int methodCount = readCount(in);
+    final Set<Method> methods = new HashSet<Method>();
+    for (int i = 0; i < methodCount; i++) {
+      methods.add(new Method(in.readUTF(), in.readUTF()));
+    }
+    final Set<String> fields = readStrings(in);
+    final Set<String> signaturePolymorphicMethods = readStrings(in);
+    return new ClassSignature(className, superName, interfaces.toArray(new String[interfaces.size()]), isRuntimeClass,
+        methods, fields, signaturePolymorphicMethods);
+  }
+  
+  /** Returns a hash of the signature data that is independent of the iteration order of the sets. Used to detect changes of related classes on incremental checks. */
+  String getFingerprint() {
+    final MessageDigest digest = AsmUtils.newSHA1();
+    final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        // discard, we only need the digest
+      }
+    }, digest));
+    try {
+      out.writeUTF(className);
+      out.writeBoolean(isRuntimeClass);
+      out.writeUTF(String.valueOf(superName));
+      final String[] interfaces = (this.interfaces == null) ? new String[0] : this.interfaces;
+      out.writeInt(interfaces.length);
+      for (final String intf : interfaces) {
+        out.writeUTF(intf);
+      }
+      final Set<String> methods = new TreeSet<String>();
+      for (final Method m : this.methods) {
+        methods.add(m.getName() + m.getDescriptor());
+      }
+      writeStrings(out, methods);
+      writeStrings(out, new TreeSet<String>(fields));
+      writeStrings(out, new TreeSet<String>(signaturePolymorphicMethods));
+      out.flush();
+    } catch (IOException ioe) {
+      throw new AssertionError(ioe); // cannot happen, we write to memory
+    }
+    return AsmUtils.toHex(digest.digest());
+  }
+  
+  private static void writeStrings(DataOutput out, Set<String> set) throws IOException {
+    out.writeInt(set.size());
+    for (final String s : set) {
+      out.writeUTF(s);
+    }
+  }
+  
+  private static Set<String> readStrings(DataInput in) throws IOException {
+    final int count = readCount(in);
+    final Set<String> set = new HashSet<String>();
+    for (int i = 0; i < count; i++) {
+      set.add(in.readUTF());
+    }
+    return set;
+  }
+  
+  private static int readCount(DataInput in) throws IOException {
+    final int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("Corrupt signature data, negative count: " + count);
+    }
+    return count;
+  }
+  
+  /** Returns the offset after the attributes table starting at the given offset. */
+  private static int skipAttributes(ClassReader classReader, int offset) {
+    int count = classReader.readUnsignedShort(offset);
+    offset += 2;
+    for (; count > 0; count--) {
+      offset += 6 + classReader.readInt(offset + 2);
+    }
+    return offset;
+  }
+  
+  private static <T> Set<T> createSet(Collection<? extends T> c) {
+    return c.isEmpty() ? Collections.<T>emptySet() : new MemberSet<T>(c);
+  }
+  
+  /**
+   * An unmodifiable set of members, stored in a single open-addressing hash table. Unlike {@link HashSet},
+   * it needs no entry objects, which matters as signatures of many (runtime) classes are kept in memory.
+   */
+  private static final class MemberSet<T> extends AbstractSet<T> {
+    private final Object[] table;
+    private final int size;
+    
+    MemberSet(Collection<? extends T> c) {
+      int capacity = 2;
+      while (capacity < c.size() * 2) {
+        capacity <<= 1;
+      }
+      this.table = new Object[capacity];
+      int size = 0;
+      for (final T e : c) {
+        final int slot = slot(e);
+        if (table[slot] == null) {
+          table[slot] = e;
+          size++;
+        }
+      }
+      this.size = size;
+    }
+    
+    /** Returns the slot of the given element, or the empty slot where it would be inserted. */
+    private int slot(Object o) {
+      final int mask = table.length - 1;
+      int h = o.hashCode();
+      h ^= (h >>> 16);
+      for (int i = h & mask;; i = (i + 1) & mask) {
+        final Object e = table[i];
+        if (e == null || e.equals(o)) {
+          return i;
+        }
+      }
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+      return o != null && table[slot(o)] != null;
+    }
+    
+    @Override
+    public int size() {
+      return size;
+    }
+    
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private int pos = advance(0);
+        
+        private int advance(int i) {
+          while (i < table.length && table[i] == null) {
+            i++;
+          }
+          return i;
+        }
+        
+        @Override
+        public boolean hasNext() {
+          return pos < table.length;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+          if (pos >= table.length) {
+            throw new NoSuchElementException();
+          }
+          final T e = (T) table[pos];
+          pos = advance(pos + 1);
+          return e;
+        }
+        
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
   }
 
   public ClassReader getReader() {
@@ -0,0 +1,245 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the class files in the directories and JAR files of a classpath, which serves the
+ * bytecode directly without going through {@code ClassLoader.getResource()} and {@code JarURLConnection}.
+ * Each JAR file is opened once and the names of all its class files are put into a single map, so
+ * looking up a class no longer walks the whole classpath. Directories are checked in classpath order.
+ * The elements listed in the {@code Class-Path} manifest attribute of a JAR file are indexed right after it,
+ * like the {@link java.net.URLClassLoader} searches them.
+ * This class is thread safe.
+ */
+final class ClasspathIndex implements Closeable {
+
+  /** A class file found in the index. */
+  static final class Resource {
+    /** The JAR file containing the class, or {@code null} if it is in a directory. */
+    final File jar;
+    /**
+     * If {@code true}, the class is in a multi-release JAR file, so only the {@link ClassLoader} knows
+     * which version of it to read. The contents of the resource must not be used in that case.
+     */
+    final boolean multiRelease;
+    private final ZipFile zip;
+    private final ZipEntry entry;
+    private final File file;
+
+    Resource(File jar, ZipFile zip, ZipEntry entry, boolean multiRelease) {
+      this.jar = jar;
+      this.multiRelease = multiRelease;
+      this.zip = zip;
+      this.entry = entry;
+      this.file = null;
+    }
+
+    Resource(File file) {
+      this.jar = null;
+      this.multiRelease = false;
+      this.zip = null;
+      this.entry = null;
+      this.file = file;
+    }
+
+    InputStream open() throws IOException {
+      return (zip != null) ? zip.getInputStream(entry) : new FileInputStream(file);
+    }
+
+    /** Returns the size of the class file, or {@code -1} if unknown. */
+    long size() {
+      return (zip != null) ? entry.getSize() : file.length();
+    }
+  }
+
+  private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+  private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+  // existing classpath elements in search order:
+  private final List<File> roots = new ArrayList<File>();
+  // opened JAR files (same index as roots), null for directories:
+  private final List<ZipFile> zips = new ArrayList<ZipFile>();
+  // indexes of the multi-release JAR files in roots:
+  private final Set<Integer> multiReleaseJars = new HashSet<Integer>();
+  // key is the resource name of a class file, value is the index of the first JAR file containing it:
+  private final Map<String,Integer> jarEntries = new HashMap<String,Integer>();
+  // all elements already added (the URLClassLoader also searches each of them only once):
+  private final Set<File> seen = new HashSet<File>();
+  // false, if a Class-Path manifest attribute refers to a location that is not a local file:
+  private boolean complete = true;
+
+  private ClasspathIndex() {
+  }
+
+  /**
+   * Opens all JAR files of the given classpath (including those referred to by their {@code Class-Path} manifest attribute)
+   * and indexes their class files. Files that are not JAR files are skipped, like the {@link java.net.URLClassLoader} does.
+   */
+  static ClasspathIndex open(List<File> classpath) throws IOException {
+    final ClasspathIndex index = new ClasspathIndex();
+    boolean success = false;
+    try {
+      for (final File f : classpath) {
+        index.add(f);
+      }
+      success = true;
+      return index;
+    } finally {
+      if (!success) {
+        index.close();
+      }
+    }
+  }
+
+  private void add(File f) throws IOException {
+    if (!seen.add(f.getAbsoluteFile())) {
+      return;
+    }
+    if (f.isDirectory()) {
+      roots.add(f);
+      zips.add(null);
+    } else if (f.isFile()) {
+      final JarFile zip;
+      try {
+        zip = new JarFile(f, false);
+      } catch (ZipException ze) {
+        // not a JAR file, the URLClassLoader ignores it, too:
+        return;
+      }
+      final Integer id = Integer.valueOf(roots.size());
+      roots.add(f);
+      zips.add(zip);
+      final Manifest manifest = zip.getManifest();
+      final Attributes attr = (manifest == null) ? null : manifest.getMainAttributes();
+      final boolean multiRelease = attr != null && Boolean.parseBoolean(attr.getValue(MULTI_RELEASE));
+      if (multiRelease) {
+        multiReleaseJars.add(id);
+      }
+      for (final Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+        String name = e.nextElement().getName();
+        if (multiRelease && name.startsWith(VERSIONS_PREFIX)) {
+          // a class may only exist in a versioned folder, strip "META-INF/versions/<n>/":
+          final int p = name.indexOf('/', VERSIONS_PREFIX.length());
+          if (p < 0) {
+            continue;
+          }
+          name = name.substring(p + 1);
+        }
+        if (name.endsWith(".class") && !jarEntries.containsKey(name)) {
+          jarEntries.put(name, id);
+        }
+      }
+      final String classPath = (attr == null) ? null : attr.getValue(Attributes.Name.CLASS_PATH);
+      if (classPath != null) {
+        addClassPath(f, classPath);
+      }
+    }
+  }
+
+  /** Adds the elements of a {@code Class-Path} manifest attribute, which are URLs relative to the JAR file. */
+  private void addClassPath(File jar, String classPath) throws IOException {
+    final URL base = jar.toURI().toURL();
+    for (final StringTokenizer st = new StringTokenizer(classPath); st.hasMoreTokens();) {
+      final URL url;
+      try {
+        url = new URL(base, st.nextToken());
+      } catch (MalformedURLException mue) {
+        // the URLClassLoader ignores invalid entries, too:
+        continue;
+      }
+      if (!"file".equalsIgnoreCase(url.getProtocol())) {
+        complete = false;
+        continue;
+      }
+      try {
+        add(new File(url.toURI()));
+      } catch (URISyntaxException e) {
+        complete = false;
+      } catch (IllegalArgumentException e) {
+        complete = false;
+      }
+    }
+  }
+
+  /**
+   * Returns {@code false}, if a {@code Class-Path} manifest attribute refers to locations that are not indexed.
+   * Classes not found in the index must then be looked up using the {@link ClassLoader}.
+   */
+  boolean isComplete() {
+    return complete;
+  }
+
+  /** Returns the class file with the given resource name (e.g., {@code java/lang/Object.class}), or {@code null} if it is not on the classpath. */
+  Resource find(String resourceName) {
+    final Integer jar = jarEntries.get(resourceName);
+    final int limit = (jar == null) ? roots.size() : jar.intValue();
+    // directories before the JAR file take precedence:
+    for (int i = 0; i < limit; i++) {
+      if (zips.get(i) == null) {
+        final File f = new File(roots.get(i), resourceName);
+        if (f.isFile()) {
+          return new Resource(f);
+        }
+      }
+    }
+    if (jar == null) {
+      return null;
+    }
+    final ZipFile zip = zips.get(limit);
+    return new Resource(roots.get(limit), zip, zip.getEntry(resourceName), multiReleaseJars.contains(jar));
+  }
+
+  /** Closes all JAR files. */
+  @Override
+  public void close() throws IOException {
+    IOException ex = null;
+    for (final ZipFile zip : zips) {
+      if (zip != null) try {
+        zip.close();
+      } catch (IOException ioe) {
+        if (ex == null) ex = ioe;
+      }
+    }
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+}
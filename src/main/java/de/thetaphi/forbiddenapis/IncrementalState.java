@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The results of a previous run, used for incremental checks. For every checked class
+ * it stores the hash of its bytecode, the related classes it depended on, and the formatted
+ * violations. For every related class, the fingerprint of its signature is stored.
+ * The whole state is only valid for a specific set of signatures (identified by a hash).
+ * This class is thread safe.
+ */
+final class IncrementalState {
+
+  private static final int MAGIC = 0x46414953; // "FAIS"
+  private static final int VERSION = 1;
+
+  /** Fingerprint used for related classes that could not be found. */
+  static final String MISSING = "-";
+
+  /** The results of a single checked class. */
+  static final class Entry {
+    final String hash;
+    // internal names (slashed) of related classes:
+    final Set<String> dependencies;
+    final List<String> violations;
+
+    Entry(String hash, Set<String> dependencies, List<String> violations) {
+      this.hash = hash;
+      this.dependencies = dependencies;
+      this.violations = violations;
+    }
+  }
+
+  private final String signaturesHash;
+  // key is the binary name (dotted):
+  private final ConcurrentMap<String,Entry> classes = new ConcurrentHashMap<String,Entry>();
+  // key is the internal name (slashed), value is the fingerprint of the signature or MISSING:
+  private final ConcurrentMap<String,String> fingerprints = new ConcurrentHashMap<String,String>();
+
+  /** Creates an empty state for the given hash of signatures. */
+  IncrementalState(String signaturesHash) {
+    this.signaturesHash = signaturesHash;
+  }
+
+  /** Reads the state from the given file. If the file does not exist or was created with different signatures, an empty state is returned. */
+  static IncrementalState read(File file, String signaturesHash) throws IOException {
+    final IncrementalState state = new IncrementalState(signaturesHash);
+    if (!file.isFile()) {
+      return state;
+    }
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !signaturesHash.equals(in.readUTF())) {
+        return state;
+      }
+      final String[] names = new String[in.readInt()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = in.readUTF();
+        state.fingerprints.put(names[i], in.readUTF());
+      }
+      for (int i = 0, count = in.readInt(); i < count; i++) {
+        final String clazz = in.readUTF();
+        final String hash = in.readUTF();
+        final Set<String> dependencies = new TreeSet<String>();
+        for (int j = 0, c = in.readInt(); j < c; j++) {
+          dependencies.add(names[in.readInt()]);
+        }
+        final List<String> violations = new ArrayList<String>();
+        for (int j = 0, c = in.readInt(); j < c; j++) {
+          violations.add(in.readUTF());
+        }
+        state.classes.put(clazz, new Entry(hash, Collections.unmodifiableSet(dependencies), Collections.unmodifiableList(violations)));
+      }
+    } finally {
+      in.close();
+    }
+    return state;
+  }
+
+  /** Writes the state to the given file. The file is written to a temporary file first and then renamed. */
+  void write(File file) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create directory: " + dir);
+    }
+    final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    boolean success = false;
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(signaturesHash);
+        // related classes are written once and referenced by their index:
+        final Map<String,Integer> ids = new TreeMap<String,Integer>();
+        final TreeMap<String,String> fingerprints = new TreeMap<String,String>(this.fingerprints);
+        out.writeInt(fingerprints.size());
+        for (final Map.Entry<String,String> e : fingerprints.entrySet()) {
+          ids.put(e.getKey(), ids.size());
+          out.writeUTF(e.getKey());
+          out.writeUTF(e.getValue());
+        }
+        final TreeMap<String,Entry> classes = new TreeMap<String,Entry>(this.classes);
+        out.writeInt(classes.size());
+        for (final Map.Entry<String,Entry> e : classes.entrySet()) {
+          final Entry entry = e.getValue();
+          out.writeUTF(e.getKey());
+          out.writeUTF(entry.hash);
+          out.writeInt(entry.dependencies.size());
+          for (final String dep : entry.dependencies) {
+            final Integer id = ids.get(dep);
+            if (id == null) {
+              throw new IllegalStateException("Missing fingerprint of related class: " + dep);
+            }
+            out.writeInt(id.intValue());
+          }
+          out.writeInt(entry.violations.size());
+          for (final String v : entry.violations) {
+            out.writeUTF(v);
+          }
+        }
+      } finally {
+        out.close();
+      }
+      // on Windows, the rename fails if the old file exists:
+      success = tmp.renameTo(file) || (file.delete() && tmp.renameTo(file));
+      if (!success) {
+        throw new IOException("Cannot replace state file: " + file);
+      }
+    } finally {
+      if (!success) {
+        tmp.delete();
+      }
+    }
+  }
+
+  /** Returns the results of the given class (binary name), or {@code null} if not known. */
+  Entry getClass(String clazz) {
+    return classes.get(clazz);
+  }
+
+  /** Stores the results of the given class (binary name). */
+  void putClass(String clazz, Entry entry) {
+    classes.put(clazz, entry);
+  }
+
+  /** Returns the fingerprint of the given related class (internal name), or {@code null} if not known. */
+  String getFingerprint(String internalName) {
+    return fingerprints.get(internalName);
+  }
+
+  /** Stores the fingerprint of the given related class (internal name) and returns it. If a fingerprint was already stored, the existing one is returned. */
+  String putFingerprint(String internalName, String fingerprint) {
+    final String old = fingerprints.putIfAbsent(internalName, fingerprint);
+    return (old == null) ? fingerprint : old;
+  }
+
+  /** Returns the number of classes in this state. */
+  int size() {
+    return classes.size();
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.objectweb.asm.commons.Method;
+
+/** A single line of a signatures file, parsed but not yet resolved against the classpath. */
+final class ParsedSignature {
+
+  /** The signature as given in the file (without message). */
+  public final String signature;
+  /** The class name (binary name, dotted) or a glob pattern. */
+  public final String clazz;
+  /** The method (with {@code void} return type) or {@code null}. */
+  public final Method method;
+  /** The field name or {@code null}. */
+  public final String field;
+  /** The message or {@code null}. */
+  public final String message;
+
+  private ParsedSignature(String signature, String clazz, Method method, String field, String message) {
+    this.signature = signature;
+    this.clazz = clazz;
+    this.method = method;
+    this.field = field;
+    this.message = message;
+  }
+
+  /** Parses a line of a signatures file. */
+  public static ParsedSignature parse(final String line, final String defaultMessage) throws ParseException {
+    final String clazz, field, signature;
+    String message = null;
+    final Method method;
+    int p = line.indexOf('@');
+    if (p >= 0) {
+      signature = line.substring(0, p).trim();
+      message = line.substring(p + 1).trim();
+    } else {
+      signature = line;
+      message = defaultMessage;
+    }
+    p = signature.indexOf('#');
+    if (p >= 0) {
+      clazz = signature.substring(0, p);
+      final String s = signature.substring(p + 1);
+      p = s.indexOf('(');
+      if (p >= 0) {
+        if (p == 0) {
+          throw new ParseException("Invalid method signature (method name missing): " + signature);
+        }
+        // we ignore the return type, its just to match easier (so return type is void):
+        try {
+          method = Method.getMethod("void " + s, true);
+        } catch (IllegalArgumentException iae) {
+          throw new ParseException("Invalid method signature: " + signature);
+        }
+        field = null;
+      } else {
+        field = s;
+        method = null;
+      }
+    } else {
+      clazz = signature;
+      method = null;
+      field = null;
+    }
+    if (message != null && message.isEmpty()) {
+      message = null;
+    }
+    if (AsmUtils.isGlob(clazz) && (method != null || field != null)) {
+      throw new ParseException(String.format(Locale.ENGLISH, "Class level glob pattern cannot be combined with methods/fields: %s", signature));
+    }
+    return new ParsedSignature(signature, clazz, method, field, message);
+  }
+
+  /** Returns true, if this is a glob pattern on class names. */
+  public boolean isClassPattern() {
+    return AsmUtils.isGlob(clazz);
+  }
+
+  /** Returns the text printed for violations of this signature. */
+  public String getPrintout() {
+    return (message != null) ? (signature + " [" + message + "]") : signature;
+  }
+
+  /** Writes the parsed signature in a compact binary form. */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeUTF(signature);
+    out.writeUTF(clazz);
+    out.writeBoolean(method != null);
+    if (method != null) {
+      out.writeUTF(method.getName());
+      out.writeUTF(method.getDescriptor());
+    }
+    out.writeBoolean(field != null);
+    if (field != null) {
+      out.writeUTF(field);
+    }
+    out.writeBoolean(message != null);
+    if (message != null) {
+      out.writeUTF(message);
+    }
+  }
+
+  /** Reads a parsed signature written by {@link #writeTo(DataOutput)}. */
+  static ParsedSignature readFrom(DataInput in) throws IOException {
+    final String signature = in.readUTF();
+    final String clazz = in.readUTF();
+    final Method method = in.readBoolean() ? new Method(in.readUTF(), in.readUTF()) : null;
+    final String field = in.readBoolean() ? in.readUTF() : null;
+    final String message = in.readBoolean() ? in.readUTF() : null;
+    return new ParsedSignature(signature, clazz, method, field, message);
+  }
+
+  @Override
+  public String toString() {
+    return clazz + '#' + method + '#' + field + '@' + message;
+  }
+
+}
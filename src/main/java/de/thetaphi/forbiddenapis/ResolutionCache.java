@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes the results of resolving method and field references and the supertypes of classes
+ * against the class hierarchy, shared by all {@link ClassScanner}s of a single run. This class is thread safe.
+ */
+final class ResolutionCache {
+
+  /** The violation (or {@code null}) of a reference, together with the related classes that were looked up to resolve it. */
+  static final class Resolution {
+    final String violation;
+    // internal names (slashed):
+    final String[] dependencies;
+
+    Resolution(String violation, Collection<String> dependencies) {
+      this.violation = violation;
+      this.dependencies = dependencies.toArray(new String[dependencies.size()]);
+    }
+  }
+
+  // key is the internal name (slashed) of the owner, inner keys are the method name and its descriptor:
+  private final ConcurrentMap<String,ConcurrentMap<String,ConcurrentMap<String,Resolution>>> methods =
+      new ConcurrentHashMap<String,ConcurrentMap<String,ConcurrentMap<String,Resolution>>>();
+  // key is the internal name (slashed) of the owner, inner key is the field name:
+  private final ConcurrentMap<String,ConcurrentMap<String,Resolution>> fields = new ConcurrentHashMap<String,ConcurrentMap<String,Resolution>>();
+  // key is the internal name (slashed) of the class, the violation is the first forbidden supertype:
+  private final ConcurrentMap<String,Resolution> supertypes = new ConcurrentHashMap<String,Resolution>();
+
+  Resolution getMethod(String owner, String name, String desc) {
+    final ConcurrentMap<String,Resolution> descs = get(methods, owner, name);
+    return (descs == null) ? null : descs.get(desc);
+  }
+
+  void putMethod(String owner, String name, String desc, Resolution resolution) {
+    getOrCreate(getOrCreate(methods, owner), name).putIfAbsent(desc, resolution);
+  }
+
+  Resolution getField(String owner, String field) {
+    return get(fields, owner, field);
+  }
+
+  void putField(String owner, String field, Resolution resolution) {
+    getOrCreate(fields, owner).putIfAbsent(field, resolution);
+  }
+
+  Resolution getSupertypes(String clazz) {
+    return supertypes.get(clazz);
+  }
+
+  void putSupertypes(String clazz, Resolution resolution) {
+    supertypes.putIfAbsent(clazz, resolution);
+  }
+
+  private static <V> V get(ConcurrentMap<String,ConcurrentMap<String,V>> map, String key, String member) {
+    final ConcurrentMap<String,V> members = map.get(key);
+    return (members == null) ? null : members.get(member);
+  }
+
+  private static <V> ConcurrentMap<String,V> getOrCreate(ConcurrentMap<String,ConcurrentMap<String,V>> map, String key) {
+    ConcurrentMap<String,V> members = map.get(key);
+    if (members == null) {
+      final ConcurrentMap<String,V> newMembers = new ConcurrentHashMap<String,V>();
+      members = map.putIfAbsent(key, newMembers);
+      if (members == null) {
+        members = newMembers;
+      }
+    }
+    return members;
+  }
+
+}
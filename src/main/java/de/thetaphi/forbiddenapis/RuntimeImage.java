@@ -0,0 +1,380 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the class files of a Java runtime without going through a {@link ClassLoader}. The default is the
+ * {@code jrt:/} filesystem of the running Java 9+ JVM (see <a href="http://openjdk.java.net/jeps/220">JEP 220</a>),
+ * but the classes can also be read from the installation of a different JDK or from the {@code ct.sym} release data
+ * of a JDK (like {@code javac --release} does). As this library is still compatible with Java 6, the NIO.2 filesystem
+ * API is called through reflection. Implementations are thread safe.
+ */
+abstract class RuntimeImage implements Closeable {
+
+  /** A class file found in the runtime image. */
+  static abstract class Resource {
+    /** The name of the module containing the class, {@code null} for runtimes before Java 9. */
+    final String module;
+
+    Resource(String module) {
+      this.module = module;
+    }
+
+    abstract InputStream open() throws IOException;
+  }
+
+  /** A string that identifies the exact contents of this runtime, used to validate caches. It does not depend on the location of the runtime. */
+  final String identity;
+
+  RuntimeImage(String identity) {
+    this.identity = identity;
+  }
+
+  /** Returns the class file with the given resource name (e.g., {@code java/lang/Object.class}), or {@code null} if it is not part of the runtime. */
+  abstract Resource find(String resourceName) throws IOException;
+
+  /** Releases all resources; the default does nothing. */
+  @Override
+  public void close() throws IOException {
+  }
+
+  /** Returns the runtime image of the running JVM, or {@code null} if the JVM has no {@code jrt:/} filesystem (Java 8 or earlier). */
+  static RuntimeImage open() {
+    try {
+      final Object fileSystem = Class.forName("java.nio.file.FileSystems")
+          .getMethod("getFileSystem", URI.class).invoke(null, URI.create("jrt:/"));
+      return new JrtImage(fileSystem, false, "jrt:/");
+    } catch (Exception e) {
+      // no NIO.2 or no provider for 'jrt:' URIs
+      return null;
+    }
+  }
+
+  /**
+   * Opens the runtime of the given JDK or JRE installation. For Java 9+, its {@code jrt:/} filesystem
+   * is loaded from its {@code lib/jrt-fs.jar} (this also works if the running JVM is Java 8).
+   * For older versions, the JAR files in its {@code lib} and {@code lib/ext} folders are used.
+   */
+  static RuntimeImage open(File javaHome) throws IOException {
+    final File modules = new File(javaHome, "lib/modules"), jrtFs = new File(javaHome, "lib/jrt-fs.jar");
+    if (modules.isFile() && jrtFs.isFile()) {
+      final Map<String,String> env = Collections.singletonMap("java.home", javaHome.getPath());
+      final ClassLoader loader = URLClassLoader.newInstance(new URL[] { jrtFs.toURI().toURL() });
+      final Object fileSystem;
+      try {
+        fileSystem = invoke(Class.forName("java.nio.file.FileSystems").getMethod("newFileSystem", URI.class, Map.class, ClassLoader.class),
+            null, URI.create("jrt:/"), env, loader);
+      } catch (ClassNotFoundException cnfe) {
+        throw new IOException("Reading the runtime of Java 9+ requires Java 7+ to run: " + javaHome);
+      } catch (NoSuchMethodException nsme) {
+        throw new IOException("Reading the runtime of Java 9+ requires Java 7+ to run: " + javaHome);
+      } catch (RuntimeException re) {
+        throw new IOException("Cannot open runtime image of '" + javaHome + "': " + re);
+      }
+      try {
+        return new JrtImage(fileSystem, true, getIdentity(javaHome));
+      } catch (Exception e) {
+        ((Closeable) fileSystem).close();
+        throw new IOException("Cannot open runtime image of '" + javaHome + "': " + e);
+      }
+    }
+    final File lib = getLegacyLib(javaHome), rtJar = new File(lib, "rt.jar");
+    if (!rtJar.isFile()) {
+      throw new IOException("Not a Java installation (neither 'lib/modules' nor 'lib/rt.jar' found): " + javaHome);
+    }
+    final List<File> jars = new ArrayList<File>();
+    jars.add(rtJar);
+    for (final File dir : new File[] { lib, new File(lib, "ext") }) {
+      final File[] files = dir.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (final File f : files) {
+          if (f.isFile() && f.getName().endsWith(".jar") && !f.equals(rtJar)) {
+            jars.add(f);
+          }
+        }
+      }
+    }
+    return new LegacyImage(ClasspathIndex.open(jars), getIdentity(javaHome));
+  }
+
+  /** Returns the {@link #identity} of the runtime {@link #open(File)} returns for the given installation, without opening it. */
+  static String getIdentity(File javaHome) {
+    final File modules = new File(javaHome, "lib/modules");
+    if (modules.isFile() && new File(javaHome, "lib/jrt-fs.jar").isFile()) {
+      return getFileIdentity(modules);
+    }
+    return getFileIdentity(new File(getLegacyLib(javaHome), "rt.jar"));
+  }
+
+  /** Returns the {@link #identity} of the runtime {@link #openRelease(File, int)} returns, without opening it. */
+  static String getReleaseIdentity(File ctSym, int release) {
+    return getFileIdentity(ctSym) + "release=" + release + '\n';
+  }
+
+  /** Returns the {@code lib} folder of a Java 8 or earlier runtime; a JDK contains the JRE in a subfolder. */
+  private static File getLegacyLib(File javaHome) {
+    final File lib = new File(javaHome, "jre/lib");
+    return lib.isDirectory() ? lib : new File(javaHome, "lib");
+  }
+
+  /**
+   * Opens the signatures of the given Java release from a JDK's {@code lib/ct.sym} file (format of Java 9+).
+   * The release of the JDK itself is not part of it.
+   */
+  static RuntimeImage openRelease(File ctSym, int release) throws IOException {
+    if (!ctSym.isFile()) {
+      throw new IOException("Release data not found (it is only available in JDK 9+): " + ctSym);
+    }
+    if (release < 0 || release >= Character.MAX_RADIX) {
+      throw new IOException("Invalid release: " + release);
+    }
+    // each folder name contains the releases (as base 36 digits) the files apply to:
+    final char releaseChar = Character.toUpperCase(Character.forDigit(release, Character.MAX_RADIX));
+    final ZipFile zip = new ZipFile(ctSym);
+    final Map<String,ZipEntry> entries = new HashMap<String,ZipEntry>();
+    for (final Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+      final ZipEntry entry = e.nextElement();
+      final String name = entry.getName();
+      final int p = name.indexOf('/');
+      // folders like "9-modules" contain module descriptors and no classes:
+      if (p < 0 || !name.endsWith(".sig") || name.substring(0, p).indexOf(releaseChar) < 0 || name.lastIndexOf('-', p) >= 0) {
+        continue;
+      }
+      final String module = getCtSymModule(name);
+      final String resourceName = name.substring((module == null) ? p + 1 : p + module.length() + 2, name.length() - 4).concat(".class");
+      if (!entries.containsKey(resourceName)) {
+        entries.put(resourceName, entry);
+      }
+    }
+    if (entries.isEmpty()) {
+      zip.close();
+      throw new IOException(String.format(Locale.ENGLISH, "Release %d is not supported by '%s'.", release, ctSym));
+    }
+    return new CtSymImage(zip, entries, getReleaseIdentity(ctSym, release));
+  }
+
+  /**
+   * Returns the module of an entry in {@code ct.sym}. Since Java 12 the format is {@code releases/module/package/Class.sig}, but
+   * older JDKs (and the releases before Java 9 in some newer ones) leave out the module: {@code releases/package/Class.sig}.
+   * Module names always contain a dot, the top level package folders never do, so this works per release folder.
+   * Returns {@code null} if the entry has no module.
+   */
+  private static String getCtSymModule(String name) {
+    final int p = name.indexOf('/'), q = name.indexOf('/', p + 1);
+    if (q < 0) {
+      return null;
+    }
+    final String folder = name.substring(p + 1, q);
+    return (folder.indexOf('.') < 0) ? null : folder;
+  }
+
+  // the path is left out, so the identity stays the same if the installation is moved or copied (e.g., to another build machine):
+  private static String getFileIdentity(File f) {
+    return f.getName() + '\n' + f.length() + '\n' + f.lastModified() + '\n';
+  }
+
+  /** Invokes a NIO.2 method and unwraps its exceptions. */
+  static Object invoke(Method method, Object instance, Object... args) throws IOException {
+    try {
+      return method.invoke(instance, args);
+    } catch (InvocationTargetException ite) {
+      final Throwable cause = ite.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Cannot access runtime image", cause);
+    } catch (IllegalAccessException iae) {
+      throw new IOException("Cannot access runtime image", iae);
+    }
+  }
+
+  /** The {@code jrt:/} filesystem of a Java 9+ runtime. The module of a class is looked up through its {@code /packages} directory. */
+  private static final class JrtImage extends RuntimeImage {
+    private static final String[] NO_MODULES = new String[0];
+
+    private final Object fileSystem;
+    private final boolean closeable;
+    private final Method method_FileSystem_getPath, method_Path_getFileName,
+      method_Files_isDirectory, method_Files_isRegularFile, method_Files_newDirectoryStream, method_Files_newInputStream;
+    private final Object noOpenOptions, noLinkOptions;
+    // key is the package name (dotted), value are the names of all modules containing it:
+    private final ConcurrentMap<String,String[]> packageModules = new ConcurrentHashMap<String,String[]>();
+
+    JrtImage(Object fileSystem, boolean closeable, String identity) throws ClassNotFoundException,NoSuchMethodException {
+      super(identity);
+      this.fileSystem = fileSystem;
+      this.closeable = closeable;
+      final Class<?> pathClazz = Class.forName("java.nio.file.Path"),
+        filesClazz = Class.forName("java.nio.file.Files"),
+        openOptionClazz = Class.forName("java.nio.file.OpenOption"),
+        linkOptionClazz = Class.forName("java.nio.file.LinkOption");
+      this.noOpenOptions = Array.newInstance(openOptionClazz, 0);
+      this.noLinkOptions = Array.newInstance(linkOptionClazz, 0);
+      this.method_FileSystem_getPath = Class.forName("java.nio.file.FileSystem").getMethod("getPath", String.class, String[].class);
+      this.method_Path_getFileName = pathClazz.getMethod("getFileName");
+      this.method_Files_isDirectory = filesClazz.getMethod("isDirectory", pathClazz, noLinkOptions.getClass());
+      this.method_Files_isRegularFile = filesClazz.getMethod("isRegularFile", pathClazz, noLinkOptions.getClass());
+      this.method_Files_newDirectoryStream = filesClazz.getMethod("newDirectoryStream", pathClazz);
+      this.method_Files_newInputStream = filesClazz.getMethod("newInputStream", pathClazz, noOpenOptions.getClass());
+    }
+
+    @Override
+    Resource find(String resourceName) throws IOException {
+      final int p = resourceName.lastIndexOf('/');
+      if (p < 0) {
+        // the unnamed package is never part of a module
+        return null;
+      }
+      final String pkg = resourceName.substring(0, p).replace('/', '.');
+      String[] modules = packageModules.get(pkg);
+      if (modules == null) {
+        modules = listModules(pkg);
+        packageModules.putIfAbsent(pkg, modules);
+      }
+      for (final String module : modules) {
+        final Object path = getPath("/modules", module, resourceName);
+        if (((Boolean) invoke(method_Files_isRegularFile, null, path, noLinkOptions)).booleanValue()) {
+          return new Resource(module) {
+            @Override
+            InputStream open() throws IOException {
+              return (InputStream) invoke(method_Files_newInputStream, null, path, noOpenOptions);
+            }
+          };
+        }
+      }
+      return null;
+    }
+
+    private String[] listModules(String pkg) throws IOException {
+      final Object dir = getPath("/packages", pkg);
+      if (!((Boolean) invoke(method_Files_isDirectory, null, dir, noLinkOptions)).booleanValue()) {
+        return NO_MODULES;
+      }
+      final List<String> modules = new ArrayList<String>();
+      final Object stream = invoke(method_Files_newDirectoryStream, null, dir);
+      try {
+        for (final Object entry : (Iterable<?>) stream) {
+          modules.add(invoke(method_Path_getFileName, entry).toString());
+        }
+      } finally {
+        ((Closeable) stream).close();
+      }
+      return modules.toArray(new String[modules.size()]);
+    }
+
+    private Object getPath(String first, String... more) throws IOException {
+      return invoke(method_FileSystem_getPath, fileSystem, first, more);
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the filesystem of the running JVM cannot be closed:
+      if (closeable) {
+        ((Closeable) fileSystem).close();
+      }
+    }
+  }
+
+  /** The JAR files of a runtime before Java 9. */
+  private static final class LegacyImage extends RuntimeImage {
+    private final ClasspathIndex index;
+
+    LegacyImage(ClasspathIndex index, String identity) {
+      super(identity);
+      this.index = index;
+    }
+
+    @Override
+    Resource find(String resourceName) {
+      final ClasspathIndex.Resource res = index.find(resourceName);
+      return (res == null) ? null : new Resource(null) {
+        @Override
+        InputStream open() throws IOException {
+          return res.open();
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      index.close();
+    }
+  }
+
+  /** The signatures of a single release in a {@code ct.sym} file; those are class files with the extension {@code .sig}. */
+  private static final class CtSymImage extends RuntimeImage {
+    private final ZipFile zip;
+    // key is the resource name of a class file:
+    private final Map<String,ZipEntry> entries;
+
+    CtSymImage(ZipFile zip, Map<String,ZipEntry> entries, String identity) {
+      super(identity);
+      this.zip = zip;
+      this.entries = entries;
+    }
+
+    @Override
+    Resource find(String resourceName) {
+      final ZipEntry entry = entries.get(resourceName);
+      if (entry == null) {
+        return null;
+      }
+      return new Resource(getCtSymModule(entry.getName())) {
+        @Override
+        InputStream open() throws IOException {
+          return zip.getInputStream(entry);
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      zip.close();
+    }
+  }
+
+}
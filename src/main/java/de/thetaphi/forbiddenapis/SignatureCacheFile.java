@@ -0,0 +1,241 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.objectweb.asm.Type;
+
+/**
+ * A persistent file containing serialized {@link ClassSignature}s, keyed by binary class name.
+ * The file is read into memory when opened and the signatures are only deserialized on request.
+ * It is not memory mapped, because a mapping is only released by the garbage collector and Windows
+ * does not allow to replace a mapped file. New signatures can be added and are written together with
+ * the existing ones on {@link #save()}. The file carries an identity string (e.g., the JDK build); if it
+ * does not match on opening, the contents are discarded. Unreadable or corrupt contents are treated
+ * like missing ones, the file is rewritten on the next save. This class is thread safe.
+ */
+final class SignatureCacheFile {
+
+  private static final int MAGIC = 0x46414353; // "FACS"
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final String identity;
+
+  private final byte[] data;
+  private final int dataStart;
+  // key is the binary name (dotted), value is the offset in the data (relative to dataStart); corrupt entries are removed:
+  private final ConcurrentMap<String,Integer> index;
+  // all offsets of the index (sorted), used to find the end of an entry:
+  private final int[] offsets;
+  // key is the binary name (dotted):
+  private final ConcurrentMap<String,ClassSignature> added = new ConcurrentHashMap<String,ClassSignature>();
+  // true, if the file has to be rewritten, because (part of) its contents could not be read:
+  private volatile boolean corrupt;
+
+  private SignatureCacheFile(File file, String identity, byte[] data, int dataStart, Map<String,Integer> index, boolean corrupt) {
+    this.file = file;
+    this.identity = identity;
+    this.data = data;
+    this.dataStart = dataStart;
+    this.index = new ConcurrentHashMap<String,Integer>(index);
+    this.offsets = new int[index.size()];
+    int i = 0;
+    for (final Integer offset : index.values()) {
+      offsets[i++] = offset.intValue();
+    }
+    Arrays.sort(offsets);
+    this.corrupt = corrupt;
+  }
+
+  /** Creates an empty cache, which replaces the given file on {@link #save()}. */
+  private static SignatureCacheFile empty(File file, String identity, boolean corrupt) {
+    return new SignatureCacheFile(file, identity, null, 0, Collections.<String,Integer>emptyMap(), corrupt);
+  }
+
+  /**
+   * Opens the given cache file. If the file does not exist, its identity does not match, or it cannot be read,
+   * an empty cache is returned.
+   */
+  public static SignatureCacheFile open(File file, String identity) {
+    if (!file.isFile()) {
+      return empty(file, identity, false);
+    }
+    try {
+      final byte[] data = readFile(file);
+      final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !identity.equals(in.readUTF())) {
+        // stale or foreign file, will be overwritten on save:
+        return empty(file, identity, false);
+      }
+      final int count = in.readInt();
+      final Map<String,Integer> index = new TreeMap<String,Integer>();
+      for (int i = 0; i < count; i++) {
+        index.put(in.readUTF(), Integer.valueOf(in.readInt()));
+      }
+      final int dataStart = data.length - in.available();
+      for (final Integer offset : index.values()) {
+        if (offset.intValue() < 0 || offset.intValue() >= data.length - dataStart) {
+          throw new IOException("Offset out of range: " + offset);
+        }
+      }
+      return new SignatureCacheFile(file, identity, data, dataStart, index, false);
+    } catch (IOException ioe) {
+      // truncated, corrupt, or unreadable file (EOFException, UTFDataFormatException,...):
+      return empty(file, identity, true);
+    }
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    final FileInputStream in = new FileInputStream(file);
+    try {
+      final long size = in.getChannel().size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Cache file too large: " + file);
+      }
+      final byte[] data = new byte[(int) size];
+      new DataInputStream(in).readFully(data);
+      return data;
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Returns the signature of the given class (binary name), or {@code null} if not cached. Corrupt entries are removed and reported as missing. */
+  public ClassSignature get(String clazz) {
+    final Integer offset = index.get(clazz);
+    if (offset == null) {
+      return added.get(clazz);
+    }
+    final int start = dataStart + offset.intValue();
+    // the entry ends where the next one starts:
+    int next = Arrays.binarySearch(offsets, offset.intValue() + 1);
+    if (next < 0) {
+      next = -next - 1;
+    }
+    final int end = (next < offsets.length) ? dataStart + offsets[next] : data.length;
+    try {
+      final ClassSignature c = ClassSignature.readFrom(new DataInputStream(new ByteArrayInputStream(data, start, end - start)));
+      if (!c.className.replace('/', '.').equals(clazz)) {
+        throw new IOException("Entry contains another class: " + c.className);
+      }
+      return c;
+    } catch (IOException ioe) {
+      // truncated (EOFException) or corrupt entry, the class is read again and the file rewritten:
+      index.remove(clazz);
+      corrupt = true;
+      return added.get(clazz);
+    }
+  }
+
+  /** Adds a new signature, which is written to disk on next {@link #save()}. */
+  public void add(ClassSignature c) {
+    final String clazz = Type.getObjectType(c.className).getClassName();
+    if (!index.containsKey(clazz)) {
+      added.putIfAbsent(clazz, c);
+    }
+  }
+
+  /** Returns true, if signatures were added since the file was opened, or if the file has to be rewritten, because it is corrupt. */
+  public boolean isModified() {
+    return corrupt || !added.isEmpty();
+  }
+
+  /** Writes all signatures to disk, if the cache was modified. The file is written to a temporary file first and then renamed. */
+  public synchronized void save() throws IOException {
+    if (!isModified()) {
+      return;
+    }
+    // serialize all entries first (sorted, so the files are reproducible); corrupt entries are left out:
+    final TreeMap<String,byte[]> entries = new TreeMap<String,byte[]>();
+    for (final String clazz : index.keySet()) {
+      final ClassSignature c = get(clazz);
+      if (c != null) {
+        entries.put(clazz, serialize(c));
+      }
+    }
+    for (final Map.Entry<String,ClassSignature> e : added.entrySet()) {
+      entries.put(e.getKey(), serialize(e.getValue()));
+    }
+
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create cache directory: " + dir);
+    }
+    final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    boolean success = false;
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        // header and index (offsets are relative to the end of the index):
+        int offset = 0;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(identity);
+        out.writeInt(entries.size());
+        for (final Map.Entry<String,byte[]> e : entries.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeInt(offset);
+          offset += e.getValue().length;
+        }
+        for (final byte[] data : entries.values()) {
+          out.write(data);
+        }
+      } finally {
+        out.close();
+      }
+      // on Windows, the rename fails if the old file exists:
+      success = tmp.renameTo(file) || (file.delete() && tmp.renameTo(file));
+      if (!success) {
+        throw new IOException("Cannot replace cache file: " + file);
+      }
+    } finally {
+      if (!success) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static byte[] serialize(ClassSignature c) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    c.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Parses signatures files, either in text form or in the precompiled binary form
+ * of bundled signatures (see {@link #compile(Reader, OutputStream)}).
+ */
+final class SignaturesParser {
+
+  /** Receives the contents of a signatures file. */
+  interface Handler {
+    /** Called for {@code @includeBundled} lines. */
+    void includeBundled(String name) throws IOException,ParseException;
+    /** Called for each signature; {@code ignoreUnresolvable} is true after a {@code @ignoreUnresolvable} line. */
+    void addSignature(ParsedSignature signature, boolean ignoreUnresolvable) throws IOException,ParseException;
+  }
+
+  private static final String BUNDLED_PREFIX = "@includeBundled ";
+  private static final String DEFAULT_MESSAGE_PREFIX = "@defaultMessage ";
+  private static final String IGNORE_UNRESOLVABLE_LINE = "@ignoreUnresolvable";
+
+  private static final int MAGIC = 0x46414253; // "FABS"
+  private static final int VERSION = 1;
+  private static final int RECORD_END = 0, RECORD_INCLUDE = 1, RECORD_SIGNATURE = 2;
+
+  private SignaturesParser() {}
+
+  /** Parses a signatures file in text form. {@code @includeBundled} is only allowed for bundled signatures. Closes the Reader when done (on Exception, too)! */
+  static void parse(Reader reader, boolean isBundled, Handler handler) throws IOException,ParseException {
+    final BufferedReader r = new BufferedReader(reader);
+    try {
+      String line, defaultMessage = null;
+      boolean ignoreUnresolvable = false;
+      while ((line = r.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#"))
+          continue;
+        if (line.startsWith("@")) {
+          if (isBundled && line.startsWith(BUNDLED_PREFIX)) {
+            final String name = line.substring(BUNDLED_PREFIX.length()).trim();
+            handler.includeBundled(name);
+          } else if (line.startsWith(DEFAULT_MESSAGE_PREFIX)) {
+            defaultMessage = line.substring(DEFAULT_MESSAGE_PREFIX.length()).trim();
+            if (defaultMessage.length() == 0) defaultMessage = null;
+          } else if (line.equals(IGNORE_UNRESOLVABLE_LINE)) {
+            ignoreUnresolvable = true;
+          } else {
+            throw new ParseException("Invalid line in signature file: " + line);
+          }
+        } else {
+          handler.addSignature(ParsedSignature.parse(line, defaultMessage), ignoreUnresolvable);
+        }
+      }
+    } finally {
+      r.close();
+    }
+  }
+
+  /** Converts a bundled signatures file from text to binary form. The signatures are only parsed, not resolved. Closes the Reader, but not the stream. */
+  static void compile(Reader reader, OutputStream os) throws IOException,ParseException {
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    parse(reader, true, new Handler() {
+      @Override
+      public void includeBundled(String name) throws IOException {
+        out.writeByte(RECORD_INCLUDE);
+        out.writeUTF(name);
+      }
+
+      @Override
+      public void addSignature(ParsedSignature signature, boolean ignoreUnresolvable) throws IOException {
+        out.writeByte(RECORD_SIGNATURE);
+        out.writeBoolean(ignoreUnresolvable);
+        signature.writeTo(out);
+      }
+    });
+    out.writeByte(RECORD_END);
+    out.flush();
+  }
+
+  /** Records the contents of a signatures file, so they can be passed to other handlers later without parsing again. This class is immutable once recorded. */
+  static final class Recording implements Handler {
+    // either the name of an included bundled signatures file or a ParsedSignature:
+    private final List<Object> records = new ArrayList<Object>();
+    // the ignoreUnresolvable flag per ParsedSignature record:
+    private final BitSet ignoreUnresolvable = new BitSet();
+
+    @Override
+    public void includeBundled(String name) {
+      records.add(name);
+    }
+
+    @Override
+    public void addSignature(ParsedSignature signature, boolean ignoreUnresolvable) {
+      this.ignoreUnresolvable.set(records.size(), ignoreUnresolvable);
+      records.add(signature);
+    }
+
+    /** Passes all recorded contents to the given handler. */
+    void replay(Handler handler) throws IOException,ParseException {
+      for (int i = 0, c = records.size(); i < c; i++) {
+        final Object record = records.get(i);
+        if (record instanceof ParsedSignature) {
+          handler.addSignature((ParsedSignature) record, ignoreUnresolvable.get(i));
+        } else {
+          handler.includeBundled((String) record);
+        }
+      }
+    }
+  }
+
+  /** Reads a bundled signatures file in binary form (see {@link #compile(Reader, OutputStream)}). Closes the stream when done (on Exception, too)! */
+  static void parseCompiled(InputStream is, Handler handler) throws IOException,ParseException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new ParseException("Invalid format of precompiled signatures file.");
+      }
+      int type;
+      while ((type = in.readUnsignedByte()) != RECORD_END) {
+        switch (type) {
+          case RECORD_INCLUDE:
+            handler.includeBundled(in.readUTF());
+            break;
+          case RECORD_SIGNATURE:
+            final boolean ignoreUnresolvable = in.readBoolean();
+            handler.addSignature(ParsedSignature.readFrom(in), ignoreUnresolvable);
+            break;
+          default:
+            throw new ParseException("Invalid record in precompiled signatures file: " + type);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+}
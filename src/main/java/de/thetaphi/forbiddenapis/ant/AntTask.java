@@ -72,6 +72,12 @@ public class AntTask extends Task implements Constants {
   private boolean ignoreEmptyFileset = false;
   private String targetVersion = null;
   private boolean disableClassloadingCache = false;
+  private int threads = 1;
+  private File cacheDir = null;
+  private File incrementalStateFile = null;
+  private boolean streaming = false;
+  private File targetJavaHome = null;
+  private int targetRelease = 0;
     
   @Override
   public void execute() throws BuildException {
@@ -112,6 +118,10 @@ public class AntTask extends Task implements Constants {
       if (failOnUnresolvableSignatures) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (disableClassloadingCache) options.add(DISABLE_CLASSLOADING_CACHE);
       final Checker checker = new Checker(log, loader, options);
+      checker.setThreads(threads);
+      checker.setCacheDirectory(cacheDir);
+      checker.setIncrementalStateFile(incrementalStateFile);
+      checker.setStreaming(streaming);
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -125,6 +135,12 @@ public class AntTask extends Task implements Constants {
         }
       }
       
+      if (targetJavaHome != null || targetRelease > 0) try {
+        checker.setTargetRuntime(targetJavaHome, targetRelease);
+      } catch (IOException ioe) {
+        throw new BuildException("Cannot read target runtime: " + ioe.getMessage(), ioe);
+      }
+      
       for (final SuppressAnnotationType a : suppressAnnotations) {
         checker.addSuppressAnnotation(a.getClassname());
       }
@@ -188,7 +204,11 @@ public class AntTask extends Task implements Constants {
           if (restrictClassFilename && name != null && !name.endsWith(".class")) {
             continue;
           }
-          checker.addClassToCheck(r.getInputStream(), r.getName());
+          if (streaming && r instanceof FileResource) {
+            checker.addClassToCheck(((FileResource) r).getFile());
+          } else {
+            checker.addClassToCheck(r.getInputStream(), r.getName());
+          }
           foundClass = true;
         }
         if (!foundClass) {
@@ -396,4 +416,74 @@ public class AntTask extends Task implements Constants {
   public void setDisableClassloadingCache(boolean disableClassloadingCache) {
     this.disableClassloadingCache = disableClassloadingCache;
   }
+  
+  /**
+   * Number of threads used to scan the class files. If set to {@code 0},
+   * the number of available processors is used. Violations are reported in
+   * order of class names, so the output does not depend on this setting.
+   * The default is {@code 1}.
+   * @since 2.5
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+  
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes
+   * in JAR files on classpath, so they don't need to be parsed again on later runs.
+   * The runtime cache is specific to the JDK running the checks,
+   * JAR files are identified by path, size and modification time.
+   * By default no cache is used.
+   * @since 2.5
+   */
+  public void setCacheDir(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+  
+  /**
+   * File to store the results of each run, enabling incremental checks: On later runs,
+   * only classes whose bytecode or related classes (e.g., superclasses, called classes)
+   * changed are scanned again. If the signatures change, all classes are scanned again.
+   * By default all classes are always scanned.
+   * @since 2.5
+   */
+  public void setIncrementalStateFile(File incrementalStateFile) {
+    this.incrementalStateFile = incrementalStateFile;
+  }
+  
+  /**
+   * If enabled, the bytecode of the class files is not kept in memory until all of them are
+   * loaded. The files are only indexed and read again while scanning, so memory usage does not
+   * grow with the size of the checked bytecode. Only applies to plain files, other resources
+   * are always kept in memory.
+   * The default is {@code false}.
+   * @since 2.5
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+  
+  /**
+   * Installation directory of a JDK or JRE, whose runtime classes are used instead
+   * of the ones of the JVM running the checks (e.g., to check code targeting an older Java
+   * version with a newer JDK). If {@link #setTargetRelease(int)} is also given, the
+   * {@code lib/ct.sym} file of this JDK is used.
+   * By default the runtime classes of the running JVM are used.
+   * @since 2.5
+   */
+  public void setTargetJavaHome(File targetJavaHome) {
+    this.targetJavaHome = targetJavaHome;
+  }
+  
+  /**
+   * Java release (e.g., {@code 11}), whose runtime classes are read from the {@code lib/ct.sym}
+   * file of the JDK 9+ running the checks (or the one given by {@link #setTargetJavaHome(File)}),
+   * like {@code javac --release} does. This file only contains the public API, so bundled
+   * signatures referring to other members are ignored.
+   * By default the runtime classes of the running JVM are used.
+   * @since 2.5
+   */
+  public void setTargetRelease(int targetRelease) {
+    this.targetRelease = targetRelease;
+  }
 }
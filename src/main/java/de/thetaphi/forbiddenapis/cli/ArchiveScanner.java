@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+import de.thetaphi.forbiddenapis.Checker;
+import de.thetaphi.forbiddenapis.Logger;
+
+/**
+ * Adds the class files in a JAR, WAR, or ZIP file to a {@link Checker}, without extracting them.
+ * The entries are streamed, so nested JAR files ({@code WEB-INF/lib/*.jar} of a WAR file) are read
+ * from the outer file directly. Classes in {@code WEB-INF/classes/} are found under their class name.
+ * For multi-release JAR files, the version of each class matching the given Java release is used.
+ */
+final class ArchiveScanner {
+
+  private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  private static final String VERSIONS_PREFIX = "META-INF/versions/";
+  private static final String WAR_CLASSES_PREFIX = "WEB-INF/classes/";
+  private static final String WAR_LIB_PREFIX = "WEB-INF/lib/";
+  private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+  private static final Pattern JAVA_VERSION = Pattern.compile("^JAVA_VERSION=\"?([0-9.]+)");
+
+  private final Logger logger;
+  private final String[] includes, excludes;
+  private final int release;
+
+  /** Creates a scanner with the given ANT-style patterns (relative to the class root), selecting multi-release versions up to the given Java release. */
+  ArchiveScanner(Logger logger, String[] includes, String[] excludes, int release) {
+    this.logger = logger;
+    this.includes = normalizePatterns(includes);
+    this.excludes = normalizePatterns(excludes);
+    this.release = release;
+  }
+
+  /**
+   * Adds all matching class files of the given archive to the checker and returns their number.
+   * If a class file is contained more than once (e.g., in two nested JAR files), a warning is logged.
+   */
+  int addClassesToCheck(Checker checker, File archive) throws IOException {
+    final InputStream in = new FileInputStream(archive);
+    try {
+      return scan(checker, new ZipInputStream(new BufferedInputStream(in)), archive.toString(), true, new HashMap<String,String>());
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Scans one (outer or nested) archive; {@code origins} maps the names of all class files added so far to the entries they came from. */
+  private int scan(Checker checker, ZipInputStream zin, String archiveName, boolean isOuter, Map<String,String> origins) throws IOException {
+    int count = 0;
+    // class files added from this archive, the multi-release versions may replace them:
+    final Set<String> added = new HashSet<String>();
+    boolean multiRelease = false;
+    // entries of META-INF/versions/ are added at the end (in order of version), so they replace the base classes:
+    final Map<Integer,Map<String,byte[]>> versioned = new TreeMap<Integer,Map<String,byte[]>>();
+    for (ZipEntry entry; (entry = zin.getNextEntry()) != null;) {
+      if (entry.isDirectory()) {
+        continue;
+      }
+      String name = entry.getName();
+      if (name.equals(MANIFEST_NAME)) {
+        final Manifest manifest = new Manifest(uncloseable(zin));
+        multiRelease = Boolean.parseBoolean(manifest.getMainAttributes().getValue(MULTI_RELEASE));
+        continue;
+      }
+      if (isOuter && name.startsWith(WAR_LIB_PREFIX) && name.endsWith(".jar")) {
+        // the nested stream must be closed to release its Inflater, but this must not close the outer archive:
+        final ZipInputStream nested = new ZipInputStream(uncloseable(zin));
+        try {
+          count += scan(checker, nested, archiveName + "!/" + name, false, origins);
+        } finally {
+          nested.close();
+        }
+        continue;
+      }
+      if (isOuter && name.startsWith(WAR_CLASSES_PREFIX)) {
+        name = name.substring(WAR_CLASSES_PREFIX.length());
+      }
+      if (name.startsWith(VERSIONS_PREFIX)) {
+        final int p = name.indexOf('/', VERSIONS_PREFIX.length());
+        if (p < 0) {
+          continue;
+        }
+        final int version;
+        try {
+          version = Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), p));
+        } catch (NumberFormatException nfe) {
+          continue;
+        }
+        name = name.substring(p + 1);
+        if (version > release || !isSelected(name)) {
+          continue;
+        }
+        Map<String,byte[]> classes = versioned.get(version);
+        if (classes == null) {
+          versioned.put(version, classes = new TreeMap<String,byte[]>());
+        }
+        classes.put(name, readFully(zin));
+        continue;
+      }
+      if (isSelected(name)) {
+        final String origin = archiveName + "!/" + entry.getName();
+        addOrigin(origins, name, origin);
+        added.add(name);
+        checker.addClassToCheck(uncloseable(zin), origin);
+        count++;
+      }
+    }
+    if (multiRelease) {
+      for (final Map.Entry<Integer,Map<String,byte[]>> version : versioned.entrySet()) {
+        for (final Map.Entry<String,byte[]> e : version.getValue().entrySet()) {
+          final String origin = archiveName + "!/" + VERSIONS_PREFIX + version.getKey() + "/" + e.getKey();
+          if (added.add(e.getKey())) {
+            addOrigin(origins, e.getKey(), origin);
+          } else {
+            origins.put(e.getKey(), origin);
+          }
+          checker.addClassToCheck(new ByteArrayInputStream(e.getValue()), origin);
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private void addOrigin(Map<String,String> origins, String name, String origin) {
+    final String previous = origins.put(name, origin);
+    if (previous != null) {
+      logger.warn(String.format(Locale.ENGLISH, "Duplicate class file '%s' found in '%s' and '%s'; only the latter is checked.",
+          name, previous, origin));
+    }
+  }
+
+  private boolean isSelected(String name) {
+    name = name.replace('/', File.separatorChar);
+    boolean included = false;
+    for (final String pattern : includes) {
+      if (SelectorUtils.matchPath(pattern, name, true)) {
+        included = true;
+        break;
+      }
+    }
+    if (!included) {
+      return false;
+    }
+    for (final String pattern : excludes) {
+      if (SelectorUtils.matchPath(pattern, name, true)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Converts the patterns like {@code DirectoryScanner} does. */
+  private static String[] normalizePatterns(String[] patterns) {
+    if (patterns == null) {
+      return new String[0];
+    }
+    final String[] result = new String[patterns.length];
+    for (int i = 0; i < patterns.length; i++) {
+      String pattern = patterns[i].replace('/', File.separatorChar).replace('\\', File.separatorChar);
+      if (pattern.endsWith(File.separator)) {
+        pattern += "**";
+      }
+      result[i] = pattern;
+    }
+    return result;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buf = new byte[8192];
+    for (int read; (read = in.read(buf)) != -1;) {
+      out.write(buf, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /** The checker closes streams after parsing, but the entries of a {@link ZipInputStream} must stay open. */
+  private static InputStream uncloseable(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override
+      public void close() {
+        // don't close the archive
+      }
+    };
+  }
+
+  /** Returns the feature release of the given Java specification version (e.g., {@code 8} for {@code "1.8"}), or {@code -1} if invalid. */
+  static int parseRelease(String version) {
+    if (version == null) {
+      return -1;
+    }
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    final int p = version.indexOf('.');
+    try {
+      return Integer.parseInt((p < 0) ? version : version.substring(0, p));
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  /** Returns the feature release of the Java installation in the given directory (read from its {@code release} file), or {@code -1} if unknown. */
+  static int getJavaHomeRelease(File javaHome) throws IOException {
+    final File releaseFile = new File(javaHome, "release");
+    if (!releaseFile.isFile()) {
+      return -1;
+    }
+    final BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(releaseFile), "UTF-8"));
+    try {
+      for (String line; (line = r.readLine()) != null;) {
+        final Matcher m = JAVA_VERSION.matcher(line);
+        if (m.find()) {
+          return parseRelease(m.group(1));
+        }
+      }
+      return -1;
+    } finally {
+      r.close();
+    }
+  }
+
+}
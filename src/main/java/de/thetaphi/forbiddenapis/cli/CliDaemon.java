@@ -0,0 +1,407 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.thetaphi.forbiddenapis.ClassCache;
+import de.thetaphi.forbiddenapis.Logger;
+
+/**
+ * A long running process accepting checks from CLI clients on a local port. All checks share one
+ * {@link ClassCache}, so runtime classes and unchanged JAR files are only read by the first check.
+ * <p>
+ * Every user on the machine can connect to the local port, so the daemon writes a random token to a file
+ * that only its owner can read (see {@link #getTokenFile(File, int)}); clients must send this token first.
+ * <p>
+ * The protocol is line based (UTF-8): the client sends the token and the command. For {@code check}, it
+ * sends its working directory, followed by one line per command line argument and an empty line; {@code stop}
+ * has no more lines. The daemon answers with the log output, each line prefixed by {@code I}, {@code W},
+ * or {@code E} (info, warning, error), and finally {@code X} with the exit code.
+ */
+final class CliDaemon {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String CMD_CHECK = "check", CMD_STOP = "stop";
+
+  // clients waiting for a free thread; if there are more, they are rejected:
+  private static final int MAX_QUEUED_CLIENTS = 32;
+  // clients must send their request within this time, so they cannot block a thread:
+  private static final int REQUEST_TIMEOUT_MILLIS = 30000;
+
+  private final Logger log;
+  private final int port;
+  private final File tokenDir;
+  private final ClassCache classCache = new ClassCache();
+  // each check runs with its own threads (see '--threads'), so run no more checks at once than there are CPUs:
+  private final ThreadPoolExecutor executor;
+
+  private ServerSocket server;
+  private File tokenFile;
+  private String token;
+  private volatile boolean stopped = false;
+
+  /** Creates a daemon listening on the given local port (0 to pick a free one); the token file is written to the given directory. */
+  CliDaemon(Logger log, int port, File tokenDir) {
+    this.log = log;
+    this.port = port;
+    this.tokenDir = tokenDir;
+    final int maxChecks = Runtime.getRuntime().availableProcessors();
+    this.executor = new ThreadPoolExecutor(maxChecks, maxChecks, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CLIENTS));
+  }
+
+  /** Returns the default directory for token files: {@code .forbiddenapis} in the user's home. */
+  static File getDefaultTokenDir() {
+    return new File(System.getProperty("user.home"), ".forbiddenapis");
+  }
+
+  /** Returns the file in the given directory, which contains the token of the daemon on the given port. */
+  static File getTokenFile(File tokenDir, int port) {
+    return new File(tokenDir, "daemon-" + port + ".token");
+  }
+
+  /** Opens the server socket and writes the token file. Returns the port the daemon listens on. */
+  synchronized int start() throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Daemon is already started.");
+    }
+    final ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(null));
+    try {
+      final byte[] random = new byte[32];
+      new SecureRandom().nextBytes(random);
+      final StringBuilder sb = new StringBuilder();
+      for (final byte b : random) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      this.token = sb.toString();
+      this.tokenFile = getTokenFile(tokenDir, server.getLocalPort());
+      writeTokenFile(tokenFile, token);
+    } catch (IOException ioe) {
+      server.close();
+      throw ioe;
+    }
+    this.server = server;
+    return server.getLocalPort();
+  }
+
+  /** Accepts clients until a client sends the {@code stop} command. The checks still running are completed in the background. */
+  void run() throws IOException {
+    final ServerSocket server;
+    synchronized (this) {
+      if (this.server == null) {
+        start();
+      }
+      server = this.server;
+    }
+    try {
+      log.info("Forbidden API checker daemon listening on port " + server.getLocalPort() + "...");
+      while (true) {
+        final Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketException se) {
+          if (stopped) {
+            break;
+          }
+          throw se;
+        }
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                serve(socket);
+              } catch (IOException ioe) {
+                log.warn("Connection to client failed: " + ioe);
+              }
+            }
+          });
+        } catch (RejectedExecutionException ree) {
+          reject(socket, "Too many checks submitted to the daemon, try again later.");
+        }
+      }
+      log.info("Forbidden API checker daemon stopped.");
+    } finally {
+      executor.shutdown();
+      server.close();
+      if (!tokenFile.delete()) {
+        log.warn("Cannot delete token file: " + tokenFile);
+      }
+    }
+  }
+
+  /** Stops accepting clients, this makes {@link #run()} return. */
+  void stop() throws IOException {
+    stopped = true;
+    synchronized (this) {
+      if (server != null) {
+        server.close();
+      }
+    }
+  }
+
+  void serve(Socket socket) throws IOException {
+    try {
+      socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+      final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+      final ClientLogger clientLog = new ClientLogger(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8)));
+      // compare in constant time, so the token cannot be guessed from the response times:
+      if (!MessageDigest.isEqual(token.getBytes(UTF8), readLine(in).getBytes(UTF8))) {
+        log.warn("Rejected client with invalid token.");
+        clientLog.error("Invalid token, the daemon was probably restarted.");
+        clientLog.exit(CliMain.EXIT_ERR_OTHER);
+        return;
+      }
+      final String command = readLine(in);
+      if (CMD_STOP.equals(command)) {
+        clientLog.info("Stopping daemon...");
+        stop();
+        clientLog.exit(CliMain.EXIT_SUCCESS);
+        return;
+      }
+      if (!CMD_CHECK.equals(command)) {
+        clientLog.error("Unknown command: " + command);
+        clientLog.exit(CliMain.EXIT_ERR_OTHER);
+        return;
+      }
+      final String cwd = readLine(in);
+      final List<String> args = new ArrayList<String>();
+      String arg;
+      while ((arg = readLine(in)).length() > 0) {
+        args.add(arg);
+      }
+      socket.setSoTimeout(0);
+      int exitCode = CliMain.EXIT_SUCCESS;
+      try {
+        new CliMain(clientLog, new File(cwd), classCache, args.toArray(new String[args.size()])).run();
+      } catch (ExitException e) {
+        if (e.getMessage() != null) {
+          clientLog.error(e.getMessage());
+        }
+        exitCode = e.exitCode;
+      } catch (RuntimeException re) {
+        clientLog.error("Check failed: " + re);
+        exitCode = CliMain.EXIT_ERR_OTHER;
+      }
+      clientLog.exit(exitCode);
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static void reject(Socket socket, String msg) throws IOException {
+    try {
+      final ClientLogger clientLog = new ClientLogger(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8)));
+      clientLog.error(msg);
+      clientLog.exit(CliMain.EXIT_ERR_OTHER);
+    } finally {
+      socket.close();
+    }
+  }
+
+  /** Creates the token file, so only the current user can read it. */
+  private void writeTokenFile(File f, String token) throws IOException {
+    final File dir = f.getParentFile();
+    if (!dir.isDirectory()) {
+      if (!dir.mkdirs()) {
+        throw new IOException("Cannot create directory for token file: " + dir);
+      }
+      restrictToOwner(dir);
+    }
+    // a token file left by a crashed daemon may have other permissions, so always create a new one:
+    if ((f.exists() && !f.delete()) || !f.createNewFile()) {
+      throw new IOException("Cannot create token file: " + f);
+    }
+    // restrict the (still empty) file, before the token is written:
+    restrictToOwner(f);
+    final Writer out = new OutputStreamWriter(new FileOutputStream(f), UTF8);
+    try {
+      out.write(token);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void restrictToOwner(File f) {
+    // on Windows, the permissions cannot be removed for all users, but the user's home directory is private anyway:
+    final boolean dir = f.isDirectory();
+    if (!(f.setReadable(false, false) && f.setReadable(true, true) &&
+        f.setWritable(false, false) && f.setWritable(true, true) &&
+        f.setExecutable(false, false) && (!dir || f.setExecutable(true, true)))) {
+      log.warn("Cannot restrict access to the owner: " + f);
+    }
+  }
+
+  private static String readToken(File tokenDir, int port) throws IOException {
+    final File f = getTokenFile(tokenDir, port);
+    final BufferedReader r;
+    try {
+      r = new BufferedReader(new InputStreamReader(new FileInputStream(f), UTF8));
+    } catch (FileNotFoundException fnfe) {
+      throw new IOException("Cannot read token file of daemon (is it running?): " + f);
+    }
+    try {
+      final String token = r.readLine();
+      if (token == null) {
+        throw new IOException("Token file of daemon is empty: " + f);
+      }
+      return token;
+    } finally {
+      r.close();
+    }
+  }
+
+  /** Submits a check to the daemon on the given port, prints its log output, and returns its exit code. */
+  static int submit(Logger log, int port, File tokenDir, File cwd, List<String> args) throws IOException {
+    final List<String> request = new ArrayList<String>();
+    request.add(CMD_CHECK);
+    request.add(cwd.getCanonicalPath());
+    for (final String arg : args) {
+      if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0 || arg.length() == 0) {
+        throw new IOException("Command line argument cannot be submitted to daemon: '" + arg + "'");
+      }
+      request.add(arg);
+    }
+    request.add("");
+    return send(log, port, tokenDir, request);
+  }
+
+  /** Stops the daemon on the given port; checks that are still running are completed. Returns the exit code. */
+  static int stop(Logger log, int port, File tokenDir) throws IOException {
+    final List<String> request = new ArrayList<String>();
+    request.add(CMD_STOP);
+    return send(log, port, tokenDir, request);
+  }
+
+  private static int send(Logger log, int port, File tokenDir, List<String> request) throws IOException {
+    final String token = readToken(tokenDir, port);
+    final Socket socket = new Socket(InetAddress.getByName(null), port);
+    try {
+      final Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+      out.write(token);
+      out.write('\n');
+      for (final String line : request) {
+        out.write(line);
+        out.write('\n');
+      }
+      out.flush();
+      final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+      while (true) {
+        final String line = readLine(in);
+        final String msg = (line.length() > 2) ? line.substring(2) : "";
+        switch (line.length() > 0 ? line.charAt(0) : '?') {
+          case 'I':
+            log.info(msg);
+            break;
+          case 'W':
+            log.warn(msg);
+            break;
+          case 'E':
+            log.error(msg);
+            break;
+          case 'X':
+            try {
+              return Integer.parseInt(msg);
+            } catch (NumberFormatException nfe) {
+              throw new IOException("Invalid exit code received from daemon: " + msg);
+            }
+          default:
+            throw new IOException("Invalid response received from daemon: " + line);
+        }
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static String readLine(BufferedReader in) throws IOException {
+    final String line = in.readLine();
+    if (line == null) {
+      throw new EOFException("Connection closed unexpectedly.");
+    }
+    return line;
+  }
+
+  /** Sends log output to the client. Checks may log from several threads, so all methods are synchronized. */
+  private static final class ClientLogger implements Logger {
+    private final Writer out;
+
+    ClientLogger(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public synchronized void error(String msg) {
+      send('E', msg);
+    }
+
+    @Override
+    public synchronized void warn(String msg) {
+      send('W', msg);
+    }
+
+    @Override
+    public synchronized void info(String msg) {
+      send('I', msg);
+    }
+
+    synchronized void exit(int exitCode) throws IOException {
+      out.write("X " + exitCode + "\n");
+      out.flush();
+    }
+
+    private void send(char type, String msg) {
+      try {
+        for (final String line : String.valueOf(msg).split("\\r?\\n", -1)) {
+          out.write(type);
+          out.write(' ');
+          out.write(line);
+          out.write('\n');
+        }
+        out.flush();
+      } catch (IOException ioe) {
+        // client went away, the check continues without output
+      }
+    }
+  }
+
+}
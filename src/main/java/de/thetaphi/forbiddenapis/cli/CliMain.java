@@ -21,9 +21,13 @@ import static de.thetaphi.forbiddenapis.Checker.Option.*;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.net.JarURLConnection;
 import java.net.URLConnection;
@@ -42,6 +46,7 @@ import org.codehaus.plexus.util.DirectoryScanner;
 
 import de.thetaphi.forbiddenapis.AsmUtils;
 import de.thetaphi.forbiddenapis.Checker;
+import de.thetaphi.forbiddenapis.ClassCache;
 import de.thetaphi.forbiddenapis.Constants;
 import de.thetaphi.forbiddenapis.ForbiddenApiException;
 import de.thetaphi.forbiddenapis.Logger;
@@ -54,10 +59,15 @@ import de.thetaphi.forbiddenapis.StdIoLogger;
 public final class CliMain implements Constants {
 
   private final Option classpathOpt, dirOpt, includesOpt, excludesOpt, signaturesfileOpt, bundledsignaturesOpt, suppressannotationsOpt,
-    internalruntimeforbiddenOpt, allowmissingclassesOpt, allowunresolvablesignaturesOpt, versionOpt, helpOpt;
+    internalruntimeforbiddenOpt, allowmissingclassesOpt, allowunresolvablesignaturesOpt, threadsOpt, cachedirOpt, incrementalOpt, streamingOpt,
+    targetjavahomeOpt, targetreleaseOpt, daemonOpt, stopdaemonOpt, connectOpt, versionOpt, helpOpt;
   private final CommandLine cmd;
   
-  private static final Logger LOG = StdIoLogger.INSTANCE;
+  private final Logger log;
+  // relative paths are resolved against this directory (null = current directory):
+  private final File baseDir;
+  // shared by all checks of a daemon (null if not running in a daemon):
+  private final ClassCache classCache;
   
   public static final int EXIT_SUCCESS = 0;
   public static final int EXIT_VIOLATION = 1;
@@ -66,14 +76,34 @@ public final class CliMain implements Constants {
   public static final int EXIT_ERR_OTHER = 4;
 
   public CliMain(String... args) throws ExitException {
+    this(StdIoLogger.INSTANCE, null, null, args);
+  }
+  
+  /** Creates a CLI instance for a check submitted to the {@link CliDaemon}, which logs to the client and resolves paths against the client's working directory. */
+  CliMain(Logger log, File baseDir, ClassCache classCache, String... args) throws ExitException {
+    this.log = log;
+    this.baseDir = baseDir;
+    this.classCache = classCache;
     final OptionGroup required = new OptionGroup();
     required.setRequired(true);
     required.addOption(dirOpt = Option.builder("d")
-        .desc("directory with class files to check for forbidden api usage; this directory is also added to classpath")
+        .desc("directory (or JAR/WAR/ZIP file) with class files to check for forbidden api usage; this directory is also added to classpath")
         .longOpt("dir")
         .hasArg()
         .argName("directory")
         .build());
+    required.addOption(daemonOpt = Option.builder()
+        .desc("run as daemon accepting checks from clients (see '--connect') on the given local port; the daemon keeps runtime classes and JAR files cached in memory")
+        .longOpt("daemon")
+        .hasArg()
+        .argName("port")
+        .build());
+    required.addOption(stopdaemonOpt = Option.builder()
+        .desc("stop the daemon running on the given local port (see '--daemon'); checks still running are completed")
+        .longOpt("stopdaemon")
+        .hasArg()
+        .argName("port")
+        .build());
     required.addOption(versionOpt = Option.builder("V")
         .desc("print product version and exit")
         .longOpt("version")
@@ -138,6 +168,46 @@ public final class CliMain implements Constants {
         .desc("don't fail if a signature is not resolving")
         .longOpt("allowunresolvablesignatures")
         .build());
+    options.addOption(threadsOpt = Option.builder("t")
+        .desc("number of threads used to load and scan class files (0 = number of processors, defaults to 1)")
+        .longOpt("threads")
+        .hasArg()
+        .argName("count")
+        .build());
+    options.addOption(cachedirOpt = Option.builder()
+        .desc("directory to persistently cache signatures of runtime classes and JAR files on classpath (e.g., ~/.cache/forbiddenapis)")
+        .longOpt("cachedir")
+        .hasArg()
+        .argName("directory")
+        .build());
+    options.addOption(incrementalOpt = Option.builder()
+        .desc("file to store the results of each run; only class files that changed (or depend on changed classes) are scanned again on later runs")
+        .longOpt("incremental")
+        .hasArg()
+        .argName("statefile")
+        .build());
+    options.addOption(streamingOpt = Option.builder()
+        .desc("don't keep the bytecode of all class files in memory, read them again while scanning (for very large directories)")
+        .longOpt("streaming")
+        .build());
+    options.addOption(targetjavahomeOpt = Option.builder()
+        .desc("read runtime classes from this JDK/JRE installation instead of the one running the checks")
+        .longOpt("targetjavahome")
+        .hasArg()
+        .argName("directory")
+        .build());
+    options.addOption(targetreleaseOpt = Option.builder()
+        .desc("read runtime classes of this Java release from the 'lib/ct.sym' file of the target (or running) JDK 9+, like 'javac --release'")
+        .longOpt("targetrelease")
+        .hasArg()
+        .argName("version")
+        .build());
+    options.addOption(connectOpt = Option.builder()
+        .desc("don't check in this process, send all other options to the daemon running on the given local port (see '--daemon')")
+        .longOpt("connect")
+        .hasArg()
+        .argName("port")
+        .build());
 
     try {
       this.cmd = new DefaultParser().parse(options, args);
@@ -157,7 +227,7 @@ public final class CliMain implements Constants {
   
   private void printVersion() {
     final Package pkg = this.getClass().getPackage();
-    LOG.info(String.format(Locale.ENGLISH,
+    log.info(String.format(Locale.ENGLISH,
       "%s %s",
       pkg.getImplementationTitle(), pkg.getImplementationVersion()
     ));
@@ -172,7 +242,7 @@ public final class CliMain implements Constants {
       if (conn instanceof JarURLConnection) {
         final URL jarUrl = ((JarURLConnection) conn).getJarFileURL();
         if ("file".equalsIgnoreCase(jarUrl.getProtocol())) {
-          final String cwd = new File(".").getCanonicalPath(), path = new File(jarUrl.toURI()).getCanonicalPath();
+          final String cwd = resolve(".").getCanonicalPath(), path = new File(jarUrl.toURI()).getCanonicalPath();
           cmdline = "java -jar " + (path.startsWith(cwd) ? path.substring(cwd.length() + File.separator.length()) : path);
         }
       }
@@ -181,18 +251,96 @@ public final class CliMain implements Constants {
     } catch (URISyntaxException use) {
       // ignore, use default cmdline value
     }
-    formatter.printHelp(cmdline + " [options]",
+    final StringWriter sw = new StringWriter();
+    final PrintWriter pw = new PrintWriter(sw);
+    formatter.printHelp(pw, formatter.getWidth(), cmdline + " [options]",
       "Scans a set of class files for forbidden API usage.",
-      options,
+      options, formatter.getLeftPadding(), formatter.getDescPadding(),
       String.format(Locale.ENGLISH,
         "Exit codes: %d = SUCCESS, %d = forbidden API detected, %d = invalid command line, %d = unsupported JDK version, %d = other error (I/O,...)",
         EXIT_SUCCESS, EXIT_VIOLATION, EXIT_ERR_CMDLINE, EXIT_UNSUPPORTED_JDK, EXIT_ERR_OTHER
       )
     );
+    pw.flush();
+    for (final String line : sw.toString().split("\\r?\\n")) {
+      log.info(line);
+    }
   }
   
+  /** Resolves a path given on the command line. */
+  private File resolve(String path) {
+    final File f = new File(path);
+    return (baseDir == null || f.isAbsolute()) ? f.getAbsoluteFile() : new File(baseDir, path);
+  }
+  
+  private static int parsePort(String port) throws ExitException {
+    try {
+      final int p = Integer.parseInt(port);
+      if (p >= 0 && p <= 0xFFFF) {
+        return p;
+      }
+    } catch (NumberFormatException nfe) {
+      // fall through
+    }
+    throw new ExitException(EXIT_ERR_CMDLINE, "Invalid port number: " + port);
+  }
+
+  /** Returns the Java release to select classes of multi-release JAR files for: the target release or runtime, if given, else the running JVM. */
+  private int getMultiReleaseVersion(String targetJavaHome, String targetRelease) throws IOException {
+    if (targetRelease != null) {
+      return Integer.parseInt(targetRelease);
+    }
+    if (targetJavaHome != null) {
+      final int release = ArchiveScanner.getJavaHomeRelease(resolve(targetJavaHome));
+      if (release > 0) {
+        return release;
+      }
+      log.warn("Cannot detect Java version of target runtime, selecting classes of multi-release JAR files for the running JVM.");
+    }
+    return ArchiveScanner.parseRelease(System.getProperty("java.specification.version"));
+  }
+
   public void run() throws ExitException {
-    final File classesDirectory = new File(cmd.getOptionValue(dirOpt.getLongOpt())).getAbsoluteFile();
+    final String daemonPort = cmd.getOptionValue(daemonOpt.getLongOpt()),
+      stopDaemonPort = cmd.getOptionValue(stopdaemonOpt.getLongOpt()),
+      connectPort = cmd.getOptionValue(connectOpt.getLongOpt());
+    if ((daemonPort != null || stopDaemonPort != null || connectPort != null) && classCache != null) {
+      throw new ExitException(EXIT_ERR_CMDLINE, "Daemon options cannot be submitted to a daemon.");
+    }
+    if (daemonPort != null) {
+      try {
+        new CliDaemon(log, parsePort(daemonPort), CliDaemon.getDefaultTokenDir()).run();
+      } catch (IOException ioe) {
+        throw new ExitException(EXIT_ERR_OTHER, "Daemon failed: " + ioe);
+      }
+      return;
+    }
+    if (stopDaemonPort != null) {
+      final int exitCode;
+      try {
+        exitCode = CliDaemon.stop(log, parsePort(stopDaemonPort), CliDaemon.getDefaultTokenDir());
+      } catch (IOException ioe) {
+        throw new ExitException(EXIT_ERR_OTHER, "Cannot stop daemon on port " + stopDaemonPort + ": " + ioe);
+      }
+      if (exitCode != EXIT_SUCCESS) {
+        throw new ExitException(exitCode);
+      }
+      return;
+    }
+    if (connectPort != null) {
+      final int exitCode;
+      try {
+        exitCode = CliDaemon.submit(log, parsePort(connectPort), CliDaemon.getDefaultTokenDir(), resolve("."), removeConnectOption());
+      } catch (IOException ioe) {
+        throw new ExitException(EXIT_ERR_OTHER, "Cannot submit check to daemon on port " + connectPort + ": " + ioe);
+      }
+      if (exitCode != EXIT_SUCCESS) {
+        throw new ExitException(exitCode);
+      }
+      return;
+    }
+    
+    final File classesDirectory = resolve(cmd.getOptionValue(dirOpt.getLongOpt()));
     
     // parse classpath given as argument; add -d to classpath, too
     final String[] classpath = cmd.getOptionValues(classpathOpt.getLongOpt());
@@ -204,7 +352,7 @@ public final class CliMain implements Constants {
         urls = new URL[classpath.length + 1];
         int i = 0;
         for (final String cpElement : classpath) {
-          urls[i++] = new File(cpElement).toURI().toURL();
+          urls[i++] = resolve(cpElement).toURI().toURL();
         }
         urls[i++] = classesDirectory.toURI().toURL();
         assert i == urls.length;
@@ -219,7 +367,27 @@ public final class CliMain implements Constants {
       final EnumSet<Checker.Option> options = EnumSet.of(FAIL_ON_VIOLATION);
       if (!cmd.hasOption(allowmissingclassesOpt.getLongOpt())) options.add(FAIL_ON_MISSING_CLASSES);
       if (!cmd.hasOption(allowunresolvablesignaturesOpt.getLongOpt())) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
-      final Checker checker = new Checker(LOG, loader, options);
+      final Checker checker = new Checker(log, loader, options);
+      checker.setClassCache(classCache);
+      
+      final String threads = cmd.getOptionValue(threadsOpt.getLongOpt());
+      if (threads != null) try {
+        checker.setThreads(Integer.parseInt(threads));
+      } catch (NumberFormatException nfe) {
+        throw new ExitException(EXIT_ERR_CMDLINE, "Invalid number of threads: " + threads);
+      }
+      
+      final String cacheDir = cmd.getOptionValue(cachedirOpt.getLongOpt());
+      if (cacheDir != null) {
+        checker.setCacheDirectory(resolve(cacheDir));
+      }
+      
+      final String incremental = cmd.getOptionValue(incrementalOpt.getLongOpt());
+      if (incremental != null) {
+        checker.setIncrementalStateFile(resolve(incremental));
+      }
+      checker.setStreaming(cmd.hasOption(streamingOpt.getLongOpt()));
+
       
       if (!checker.isSupportedJDK) {
         throw new ExitException(EXIT_UNSUPPORTED_JDK, String.format(Locale.ENGLISH, 
@@ -227,12 +395,23 @@ public final class CliMain implements Constants {
           System.getProperty("java.runtime.name"), System.getProperty("java.runtime.version")));
       }
       
+      final String targetJavaHome = cmd.getOptionValue(targetjavahomeOpt.getLongOpt()),
+        targetRelease = cmd.getOptionValue(targetreleaseOpt.getLongOpt());
+      if (targetJavaHome != null || targetRelease != null) try {
+        checker.setTargetRuntime((targetJavaHome == null) ? null : resolve(targetJavaHome),
+            (targetRelease == null) ? 0 : Integer.parseInt(targetRelease));
+      } catch (NumberFormatException nfe) {
+        throw new ExitException(EXIT_ERR_CMDLINE, "Invalid target release: " + targetRelease);
+      } catch (IOException ioe) {
+        throw new ExitException(EXIT_ERR_OTHER, "Cannot read target runtime: " + ioe);
+      }
+      
       final String[] suppressAnnotations = cmd.getOptionValues(suppressannotationsOpt.getLongOpt());
       if (suppressAnnotations != null) for (String a : suppressAnnotations) {
         checker.addSuppressAnnotation(a);
       }
       
-      LOG.info("Scanning for classes to check...");
+      log.info("Scanning for classes to check...");
       if (!classesDirectory.exists()) {
         throw new ExitException(EXIT_ERR_OTHER, "Directory with class files does not exist: " + classesDirectory);
       }
@@ -241,18 +420,25 @@ public final class CliMain implements Constants {
         includes = new String[] { "**/*.class" };
       }
       final String[] excludes = cmd.getOptionValues(excludesOpt.getLongOpt());
-      final DirectoryScanner ds = new DirectoryScanner();
-      ds.setBasedir(classesDirectory);
-      ds.setCaseSensitive(true);
-      ds.setIncludes(includes);
-      ds.setExcludes(excludes);
-      ds.addDefaultExcludes();
-      ds.scan();
-      final String[] files = ds.getIncludedFiles();
-      if (files.length == 0) {
-        throw new ExitException(EXIT_ERR_OTHER, String.format(Locale.ENGLISH,
-          "No classes found in directory %s (includes=%s, excludes=%s).",
-          classesDirectory, Arrays.toString(includes), Arrays.toString(excludes)));
+      // archives are streamed into the checker after parsing the signatures, directories are scanned up-front:
+      final boolean isArchive = classesDirectory.isFile();
+      final String[] files;
+      if (isArchive) {
+        files = null;
+      } else {
+        final DirectoryScanner ds = new DirectoryScanner();
+        ds.setBasedir(classesDirectory);
+        ds.setCaseSensitive(true);
+        ds.setIncludes(includes);
+        ds.setExcludes(excludes);
+        ds.addDefaultExcludes();
+        ds.scan();
+        files = ds.getIncludedFiles();
+        if (files.length == 0) {
+          throw new ExitException(EXIT_ERR_OTHER, String.format(Locale.ENGLISH,
+            "No classes found in directory %s (includes=%s, excludes=%s).",
+            classesDirectory, Arrays.toString(includes), Arrays.toString(excludes)));
+        }
       }
       
       try {
@@ -261,13 +447,13 @@ public final class CliMain implements Constants {
           checker.addBundledSignatures(bs, null);
         }
         if (cmd.hasOption(internalruntimeforbiddenOpt.getLongOpt())) {
-          LOG.warn(DEPRECATED_WARN_INTERNALRUNTIME);
+          log.warn(DEPRECATED_WARN_INTERNALRUNTIME);
           checker.addBundledSignatures(BS_JDK_NONPORTABLE, null);
         }
         
         final String[] signaturesFiles = cmd.getOptionValues(signaturesfileOpt.getLongOpt());
         if (signaturesFiles != null) for (String sf : new LinkedHashSet<String>(Arrays.asList(signaturesFiles))) {
-          final File f = new File(sf).getAbsoluteFile();
+          final File f = resolve(sf);
           checker.parseSignaturesFile(f);
         }
       } catch (IOException ioe) {
@@ -284,7 +470,18 @@ public final class CliMain implements Constants {
       }
 
       try {
-        checker.addClassesToCheck(classesDirectory, files);
+        if (isArchive) {
+          log.info("Loading classes to check...");
+          final int release = getMultiReleaseVersion(targetJavaHome, targetRelease);
+          final ArchiveScanner as = new ArchiveScanner(log, includes, excludes, release);
+          if (as.addClassesToCheck(checker, classesDirectory) == 0) {
+            throw new ExitException(EXIT_ERR_OTHER, String.format(Locale.ENGLISH,
+              "No classes found in archive %s (includes=%s, excludes=%s).",
+              classesDirectory, Arrays.toString(includes), Arrays.toString(excludes)));
+          }
+        } else {
+          checker.addClassesToCheck(classesDirectory, files);
+        }
       } catch (IOException ioe) {
         throw new ExitException(EXIT_ERR_OTHER, "Failed to load one of the given class files: " + ioe);
       }
@@ -304,12 +501,33 @@ public final class CliMain implements Constants {
     }
   }
   
+  /**
+   * Returns the command line without the {@code --connect} option, to be submitted to the daemon. It is rebuilt
+   * from the parsed options, so all spellings accepted by the parser (e.g., abbreviated {@code --conn 1234},
+   * {@code -connect 1234}, or {@code --co=1234}) are removed.
+   */
+  List<String> removeConnectOption() {
+    final List<String> result = new ArrayList<String>();
+    for (final Option o : cmd.getOptions()) {
+      if (o.getLongOpt().equals(connectOpt.getLongOpt())) {
+        continue;
+      }
+      final String[] values = o.getValues();
+      if (values == null) {
+        result.add("--" + o.getLongOpt());
+      } else for (final String value : values) {
+        result.add("--" + o.getLongOpt() + "=" + value);
+      }
+    }
+    return result;
+  }
+  
   public static void main(String... args) {
     try {
       new CliMain(args).run();
     } catch (ExitException e) {
       if (e.getMessage() != null) {
-        LOG.error(e.getMessage());
+        StdIoLogger.INSTANCE.error(e.getMessage());
       }
       if (e.exitCode != 0) {
         System.exit(e.exitCode);
@@ -41,11 +41,16 @@ import org.gradle.api.file.FileTree;
 import org.gradle.api.file.FileTreeElement;
 import org.gradle.api.resources.ResourceException;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.CompileClasspath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
-import org.gradle.api.tasks.OutputDirectories;
-import org.gradle.api.tasks.ParallelizableTask;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.VerificationTask;
@@ -100,25 +105,37 @@ import de.thetaphi.forbiddenapis.ParseException;
  *  ignoreFailures = false
  * }
  * </pre>
+ * <p>
+ * Since version 2.5 the task writes a report file with all violations and is cacheable,
+ * so it can be pulled from the Gradle build cache (requires Gradle v3.5 or later).
+ * All tasks of a build share the signatures of runtime classes, JAR files on classpath, and bundled
+ * signatures in memory; they are released when the build finishes.
  * 
  * @since 2.0
  */
-@ParallelizableTask
+@CacheableTask
 public class CheckForbiddenApis extends DefaultTask implements PatternFilterable,VerificationTask,Constants {
   
   private static final String NL = System.getProperty("line.separator", "\n");
   
+  /** Name of the file in {@link #getIncrementalStateDir()} that stores the results of the last run. */
+  private static final String STATE_FILE_NAME = "results.state";
+  
   private final CheckForbiddenApisExtension data = new CheckForbiddenApisExtension();
   private final PatternSet patternSet = new PatternSet().include("**/*.class");
   private FileCollection classesDirs;
   private FileCollection classpath;
   private String targetCompatibility;
+  private File incrementalStateDir;
+  private File reportFile;
+  // handle of the cache shared by all tasks of the build (see SharedClassCache), set by the plugin:
+  private Object sharedClassCache;
   
   /**
    * Directories with the class files to check.
    * Defaults to current sourseSet's output directory (Gradle 2/3) or output directories (Gradle 4.0+).
    */
-  @OutputDirectories
+  @Internal
   // no @InputDirectories, we use separate getter for a list of all input files
   public FileCollection getClassesDirs() {
     return classesDirs;
@@ -138,6 +155,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
    *  throw an exception!
    */
   @Deprecated
+  @Internal
   public File getClassesDir() {
     final FileCollection col = getClassesDirs();
     return (col == null) ? null : col.getSingleFile();
@@ -156,6 +174,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
   }
 
   /** Returns the pattern set to match against class files in {@link #getClassesDir()}. */
+  @Internal
   public PatternSet getPatternSet() {
     return patternSet;
   }
@@ -170,6 +189,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
    * Defaults to current sourseSet's compile classpath.
    */
   @InputFiles
+  @CompileClasspath
   public FileCollection getClasspath() {
     return classpath;
   }
@@ -185,6 +205,7 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
    * The signatures are resolved against {@link #getClasspath()}.
    */
   @InputFiles
+  @PathSensitive(PathSensitivity.NONE)
   @Optional
   public FileCollection getSignaturesFiles() {
     return data.signaturesFiles;
@@ -353,6 +374,92 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
     data.disableClassloadingCache = disableClassloadingCache;
   }
 
+  /**
+   * Number of threads used to load and scan the class files. If set to {@code 0},
+   * the number of available processors is used. Violations are reported in
+   * order of class names, so the output does not depend on this setting.
+   * Defaults to {@code 1}.
+   * @since 2.5
+   */
+  @Internal
+  public int getThreads() {
+    return data.threads;
+  }
+
+  /** @see #getThreads */
+  public void setThreads(int threads) {
+    data.threads = threads;
+  }
+
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes
+   * in JAR files on classpath, so they don't need to be parsed again on later runs (e.g., {@code new File(gradle.gradleUserHomeDir, 'caches/forbiddenapis')}).
+   * The runtime cache is specific to the JDK running the checks,
+   * JAR files are identified by path, size and modification time. By default no cache is used.
+   * @since 2.5
+   */
+  @Internal
+  public File getCacheDirectory() {
+    return data.cacheDirectory;
+  }
+
+  /** @see #getCacheDirectory */
+  public void setCacheDirectory(File cacheDirectory) {
+    data.cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * If enabled, the bytecode of the class files is not kept in memory until all of them are
+   * loaded. The files are only indexed and read again while scanning, so memory usage does not
+   * grow with the size of the checked bytecode.
+   * Defaults to {@code false}.
+   * @since 2.5
+   */
+  @Internal
+  public boolean getStreaming() {
+    return data.streaming;
+  }
+
+  /** @see #getStreaming */
+  public void setStreaming(boolean streaming) {
+    data.streaming = streaming;
+  }
+
+  /**
+   * Installation directory of a JDK or JRE, whose runtime classes are used instead of the ones
+   * of the JVM running Gradle (e.g., to check code targeting an older Java version with a newer JDK).
+   * If {@link #getTargetRelease()} is also given, the {@code lib/ct.sym} file of this JDK is used.
+   * By default the runtime classes of the running JVM are used.
+   * The location is not part of the task inputs, only the identity of the runtime (see {@link #getRuntimeIdentity()}).
+   * @since 2.5
+   */
+  @Internal
+  public File getTargetJavaHome() {
+    return data.targetJavaHome;
+  }
+
+  /** @see #getTargetJavaHome */
+  public void setTargetJavaHome(File targetJavaHome) {
+    data.targetJavaHome = targetJavaHome;
+  }
+
+  /**
+   * Java release (e.g., {@code 11}), whose runtime classes are read from the {@code lib/ct.sym} file
+   * of the JDK 9+ running Gradle (or the one given by {@link #getTargetJavaHome()}), like {@code javac --release}
+   * does. This file only contains the public API, so bundled signatures referring to other members are ignored.
+   * Defaults to {@code 0}, which uses the runtime classes of the running JVM.
+   * @since 2.5
+   */
+  @Input
+  public int getTargetRelease() {
+    return data.targetRelease;
+  }
+
+  /** @see #getTargetRelease */
+  public void setTargetRelease(int targetRelease) {
+    data.targetRelease = targetRelease;
+  }
+
   /**
    * List of a custom Java annotations (full class names) that are used in the checked
    * code to suppress errors. Those annotations must have at least
@@ -374,6 +481,70 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
     data.suppressAnnotations = suppressAnnotations;
   }
   
+  /**
+   * Directory where the task stores the results of the last run, so only class files whose bytecode or
+   * related classes (e.g., superclasses, called classes) changed need to be scanned again on later runs.
+   * Removed class files are dropped from the results. If the signatures change, all class files are
+   * scanned again. If set to {@code null}, all class files are always scanned.
+   * Defaults to {@code build/forbiddenApis/<taskName>}.
+   * @since 2.5
+   */
+  @OutputDirectory
+  @Optional
+  public File getIncrementalStateDir() {
+    return incrementalStateDir;
+  }
+
+  /** @see #getIncrementalStateDir */
+  public void setIncrementalStateDir(File incrementalStateDir) {
+    this.incrementalStateDir = incrementalStateDir;
+  }
+  
+  /**
+   * File to write all violations to (UTF-8 encoded, in the same format as logged).
+   * The file is written even if there are no violations. If set to {@code null}, no report is written.
+   * Defaults to {@code build/reports/forbiddenApis/<taskName>.txt}.
+   * @since 2.5
+   */
+  @OutputFile
+  @Optional
+  public File getReportFile() {
+    return reportFile;
+  }
+
+  /** @see #getReportFile */
+  public void setReportFile(File reportFile) {
+    this.reportFile = reportFile;
+  }
+  
+  /**
+   * The version of the forbiddenapis plugin. The results depend on it (e.g., through
+   * the contents of the bundled signatures), so it is part of the task inputs.
+   * @since 2.5
+   */
+  @Input
+  @Optional
+  public String getPluginVersion() {
+    return Checker.class.getPackage().getImplementationVersion();
+  }
+  
+  /**
+   * The Java runtime whose classes are used for the checks. The results depend on it (e.g., through
+   * the methods deprecated in this version), so it is part of the task inputs. If a target runtime is
+   * given (see {@link #getTargetJavaHome()} and {@link #getTargetRelease()}), it is identified by its
+   * contents, not by its location.
+   * @since 2.5
+   */
+  @Input
+  public String getRuntimeIdentity() {
+    final File targetJavaHome = getTargetJavaHome();
+    final int targetRelease = getTargetRelease();
+    if (targetJavaHome != null || targetRelease > 0) {
+      return Checker.getTargetRuntimeIdentity(targetJavaHome, targetRelease);
+    }
+    return System.getProperty("java.specification.version") + " (" + System.getProperty("java.vendor") + ")";
+  }
+  
   /**
    * The default compiler target version used to expand references to bundled JDK signatures.
    * E.g., if you use "jdk-deprecated", it will expand to this version.
@@ -479,11 +650,18 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
 
   /** Returns the classes to check. */
   @InputFiles
+  @PathSensitive(PathSensitivity.RELATIVE)
   @SkipWhenEmpty
   public FileTree getClassFiles() {
     return getClassesDirs().getAsFileTree().matching(getPatternSet());
   }
 
+  /** Called by the plugin at configuration time with the handle of the build's {@link SharedClassCache}. */
+  void setSharedClassCache(Object sharedClassCache) {
+    this.sharedClassCache = sharedClassCache;
+    SharedClassCache.usedBy(this, sharedClassCache);
+  }
+
   /** Executes the forbidden apis task. */
   @TaskAction
   public void checkForbidden() throws ForbiddenApiException {
@@ -536,6 +714,11 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       if (getFailOnUnresolvableSignatures()) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (getDisableClassloadingCache()) options.add(DISABLE_CLASSLOADING_CACHE);
       final Checker checker = new Checker(log, loader, options);
+      checker.setThreads(getThreads());
+      checker.setClassCache(SharedClassCache.get(sharedClassCache));
+      checker.setCacheDirectory(getCacheDirectory());
+      checker.setStreaming(getStreaming());
+      checker.setReportFile(getReportFile());
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -549,6 +732,14 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
         }
       }
       
+      final File targetJavaHome = getTargetJavaHome();
+      final int targetRelease = getTargetRelease();
+      if (targetJavaHome != null || targetRelease > 0) try {
+        checker.setTargetRuntime(targetJavaHome, targetRelease);
+      } catch (IOException ioe) {
+        throw new ResourceException("Cannot read target runtime.", ioe);
+      }
+      
       final Set<String> suppressAnnotations = getSuppressAnnotations();
       if (suppressAnnotations != null) {
         for (String a : suppressAnnotations) {
@@ -606,6 +797,11 @@ public class CheckForbiddenApis extends DefaultTask implements PatternFilterable
       }
 
       try {
+        // the checker itself detects the changed class files by comparing their hashes with the last run:
+        final File stateDir = getIncrementalStateDir();
+        if (stateDir != null) {
+          checker.setIncrementalStateFile(new File(stateDir, STATE_FILE_NAME));
+        }
         checker.addClassesToCheck(getClassFiles());
       } catch (IOException ioe) {
         throw new ResourceException("Failed to load one of the given class files.", ioe);
@@ -16,6 +16,7 @@
 
 package de.thetaphi.forbiddenapis.gradle;
 
+import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
@@ -42,6 +43,9 @@ public class CheckForbiddenApisExtension {
     failOnMissingClasses = true,
     failOnUnresolvableSignatures = true,
     ignoreFailures = false,
-    disableClassloadingCache = false;
+    disableClassloadingCache = false,
+    streaming = false;
+  public int threads = 1, targetRelease = 0;
+  public File cacheDirectory = null, targetJavaHome = null;
   
 }
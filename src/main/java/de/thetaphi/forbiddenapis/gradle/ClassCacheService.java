@@ -0,0 +1,44 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.gradle;
+
+import java.io.Closeable;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import de.thetaphi.forbiddenapis.ClassCache;
+
+/**
+ * The build service holding the {@link ClassCache} of a build, see {@link SharedClassCache}.
+ * Gradle closes it when the build finishes. This class is only loaded by Gradle 6.1 or later.
+ * @since 2.5
+ */
+public abstract class ClassCacheService implements BuildService<BuildServiceParameters.None>, Closeable {
+
+  private final ClassCache classCache = new ClassCache();
+
+  ClassCache getClassCache() {
+    return classCache;
+  }
+
+  @Override
+  public void close() {
+    classCache.clear();
+  }
+
+}
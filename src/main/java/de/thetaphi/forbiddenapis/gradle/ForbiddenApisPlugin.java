@@ -26,6 +26,7 @@ import java.security.PrivilegedAction;
 
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.plugins.PluginInstantiationException;
@@ -73,6 +74,13 @@ public class ForbiddenApisPlugin implements Plugin<Project> {
   
   @Override
   public void apply(Project project) {
+    final Object sharedClassCache = SharedClassCache.register(project.getGradle());
+    project.getTasks().withType(CheckForbiddenApis.class, new Action<CheckForbiddenApis>() {
+      @Override
+      public void execute(CheckForbiddenApis task) {
+        task.setSharedClassCache(sharedClassCache);
+      }
+    });
     try {
       final DelegatingScript script = compiledScript.newInstance();
       script.setDelegate(this);
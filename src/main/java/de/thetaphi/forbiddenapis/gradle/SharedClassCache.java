@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.gradle;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+
+import de.thetaphi.forbiddenapis.ClassCache;
+
+/**
+ * Holds one {@link ClassCache} per build, shared by all {@link CheckForbiddenApis} tasks of all projects.
+ * The cache is released when the build finishes, so the Gradle Daemon does not keep it between builds.
+ * With Gradle 6.1+ the cache is a build service ({@link ClassCacheService}), which also works with the
+ * configuration cache. Older versions use a build listener and share the cache with included builds.
+ * <p>
+ * The plugin passes the handle returned by {@link #register(Gradle)} to its tasks at configuration time,
+ * so the tasks never need the {@link org.gradle.api.Project} while running.
+ */
+final class SharedClassCache {
+
+  /** Name of the build service. */
+  private static final String SERVICE_NAME = "forbiddenApisClassCache";
+
+  // key is the root build; weak, in case a build never reports that it finished (only used before Gradle 6.1):
+  private static final Map<Gradle,ClassCache> caches = new WeakHashMap<Gradle,ClassCache>();
+
+  private SharedClassCache() {}
+
+  /**
+   * Creates the cache of the given build, which is released when the build finishes. Must be called at configuration
+   * time (when the plugin is applied); only the first call per build creates the cache. Returns a handle for
+   * {@link #get(Object)}: the provider of the build service, or the cache itself with Gradle versions before 6.1.
+   */
+  static Object register(Gradle gradle) {
+    if (isBuildServiceSupported()) {
+      try {
+        final Object registry = Gradle.class.getMethod("getSharedServices").invoke(gradle);
+        return Class.forName("org.gradle.api.services.BuildServiceRegistry")
+            .getMethod("registerIfAbsent", String.class, Class.class, Action.class)
+            .invoke(registry, SERVICE_NAME, ClassCacheService.class, new Action<Object>() {
+              @Override
+              public void execute(Object spec) {
+                // the service has no parameters
+              }
+            });
+      } catch (Exception e) {
+        throw new GradleException("Cannot register the build service of forbidden-apis.", unwrap(e));
+      }
+    }
+    final Gradle build = getRootBuild(gradle);
+    final ClassCache cache;
+    synchronized (caches) {
+      if (caches.containsKey(build)) {
+        return caches.get(build);
+      }
+      cache = new ClassCache();
+      caches.put(build, cache);
+    }
+    build.addBuildListener(new BuildAdapter() {
+      @Override
+      public void buildFinished(BuildResult result) {
+        release(build);
+      }
+    });
+    return cache;
+  }
+
+  /** Declares that the given task uses the cache with the given handle, so Gradle knows about the build service. */
+  static void usedBy(Task task, Object handle) {
+    if (handle instanceof ClassCache) {
+      return;
+    }
+    final Method method;
+    try {
+      method = Task.class.getMethod("usesService", Provider.class);
+    } catch (Exception e) {
+      // the method is not available in all Gradle versions with build services:
+      return;
+    }
+    try {
+      method.invoke(task, handle);
+    } catch (Exception e) {
+      throw new GradleException("Cannot declare the usage of the build service of forbidden-apis.", unwrap(e));
+    }
+  }
+
+  /** Returns the cache with the given handle (see {@link #register(Gradle)}); returns {@code null} if the handle is {@code null}. */
+  static ClassCache get(Object handle) {
+    if (handle == null || handle instanceof ClassCache) {
+      return (ClassCache) handle;
+    }
+    @SuppressWarnings("unchecked") final Provider<ClassCacheService> provider = (Provider<ClassCacheService>) handle;
+    return provider.get().getClassCache();
+  }
+
+  private static boolean isBuildServiceSupported() {
+    try {
+      Class.forName("org.gradle.api.services.BuildService", false, SharedClassCache.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException cnfe) {
+      return false;
+    }
+  }
+
+  private static Throwable unwrap(Exception e) {
+    return (e instanceof InvocationTargetException) ? e.getCause() : e;
+  }
+
+  private static Gradle getRootBuild(Gradle gradle) {
+    while (gradle.getParent() != null) {
+      gradle = gradle.getParent();
+    }
+    return gradle;
+  }
+
+  private static void release(Gradle gradle) {
+    final ClassCache cache;
+    synchronized (caches) {
+      cache = caches.remove(gradle);
+    }
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+}
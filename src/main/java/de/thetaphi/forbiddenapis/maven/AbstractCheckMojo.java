@@ -31,6 +31,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.DirectoryScanner;
 
 import de.thetaphi.forbiddenapis.Checker;
+import de.thetaphi.forbiddenapis.ClassCache;
 import de.thetaphi.forbiddenapis.Constants;
 import de.thetaphi.forbiddenapis.ForbiddenApiException;
 import de.thetaphi.forbiddenapis.Logger;
@@ -40,6 +41,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.ref.SoftReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLClassLoader;
@@ -166,6 +168,63 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
   @Parameter(required = false, defaultValue = "false")
   private boolean disableClassloadingCache;
 
+  /**
+   * Number of threads used to load and scan the class files. If set to {@code 0},
+   * the number of available processors is used. Violations are reported in
+   * order of class names, so the output does not depend on this setting.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.threads", defaultValue = "1")
+  private int threads;
+
+  /**
+   * Directory to persistently cache the signatures of runtime classes and classes
+   * in JAR files on classpath, so they don't need to be parsed again on later runs (e.g., {@code ${user.home}/.cache/forbiddenapis}).
+   * The runtime cache is specific to the JDK running the checks,
+   * JAR files are identified by path, size and modification time. By default no cache is used.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.cacheDirectory")
+  private File cacheDirectory;
+
+  /**
+   * Enables incremental checks: The results of each run are stored in the build directory
+   * and on the next run only those classes are scanned again, whose bytecode or related classes
+   * (e.g., superclasses, called classes) changed. If the signatures change, all classes are scanned again.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.incremental", defaultValue = "false")
+  private boolean incremental;
+
+  /**
+   * If enabled, the bytecode of the class files is not kept in memory until all of them are
+   * loaded. The files are only indexed and read again while scanning, so memory usage does not
+   * grow with the size of the checked bytecode.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.streaming", defaultValue = "false")
+  private boolean streaming;
+
+  /**
+   * Installation directory of a JDK or JRE, whose runtime classes are used instead of the ones
+   * of the JVM running Maven (e.g., to check code targeting an older Java version with a newer JDK).
+   * If {@code targetRelease} is also given, the {@code lib/ct.sym} file of this JDK is used.
+   * By default the runtime classes of the running JVM are used.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.targetJavaHome")
+  private File targetJavaHome;
+
+  /**
+   * Java release (e.g., {@code 11}), whose runtime classes are read from the {@code lib/ct.sym} file
+   * of the JDK 9+ running Maven (or the one given by {@code targetJavaHome}), like {@code javac --release}
+   * does. This file only contains the public API, so bundled signatures referring to other members are ignored.
+   * By default ({@code 0}) the runtime classes of the running JVM are used.
+   * @since 2.5
+   */
+  @Parameter(required = false, property="forbiddenapis.targetRelease", defaultValue = "0")
+  private int targetRelease;
+
   /**
    * The default compiler target version used to expand references to bundled JDK signatures.
    * E.g., if you use "jdk-deprecated", it will expand to this version.
@@ -214,6 +273,13 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
   @Parameter(required = false, property="forbiddenapis.skip", defaultValue="false")
   private boolean skip;
 
+  /**
+   * Signatures of runtime classes, JAR files, and bundled signatures, shared by all executions in the same
+   * Maven JVM (all modules of a reactor build, also when built in parallel). It is only softly referenced, so
+   * it can be reclaimed when memory gets low (e.g., in long running Maven daemons).
+   */
+  private static SoftReference<ClassCache> sharedClassCache = null;
+
   /** The project packaging (pom, jar, etc.). */
   @Parameter(defaultValue = "${project.packaging}", readonly = true, required = true)
   private String packaging;
@@ -236,6 +302,9 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
   /** provided by the concrete Mojos for compile and test classes processing */
   protected abstract File getClassesDirectory();
 
+  /** provided by the concrete Mojos for compile and test classes processing */
+  protected abstract File getIncrementalStateFile();
+
   /** gets overridden for test, because it uses testTargetVersion as optional name to override */
   protected String getTargetVersion() {
     return targetVersion;
@@ -267,6 +336,15 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
     return new URL(jarBaseUrl, encodeUrlPath(jarPath));
   }
 
+  private static synchronized ClassCache getSharedClassCache() {
+    ClassCache cache = (sharedClassCache == null) ? null : sharedClassCache.get();
+    if (cache == null) {
+      cache = new ClassCache();
+      sharedClassCache = new SoftReference<ClassCache>(cache);
+    }
+    return cache;
+  }
+  
   @Override
   public void execute() throws MojoExecutionException {
     final Logger log = new Logger() {
@@ -325,6 +403,13 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
       if (failOnUnresolvableSignatures) options.add(FAIL_ON_UNRESOLVABLE_SIGNATURES);
       if (disableClassloadingCache) options.add(DISABLE_CLASSLOADING_CACHE);
       final Checker checker = new Checker(log, loader, options);
+      checker.setThreads(threads);
+      checker.setClassCache(getSharedClassCache());
+      checker.setCacheDirectory(cacheDirectory);
+      if (incremental) {
+        checker.setIncrementalStateFile(getIncrementalStateFile());
+      }
+      checker.setStreaming(streaming);
       
       if (!checker.isSupportedJDK) {
         final String msg = String.format(Locale.ENGLISH, 
@@ -338,6 +423,12 @@ public abstract class AbstractCheckMojo extends AbstractMojo implements Constant
         }
       }
       
+      if (targetJavaHome != null || targetRelease > 0) try {
+        checker.setTargetRuntime(targetJavaHome, targetRelease);
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Cannot read target runtime.", ioe);
+      }
+      
       if (suppressAnnotations != null) {
         for (String a : suppressAnnotations) {
           checker.addSuppressAnnotation(a);
@@ -51,6 +51,13 @@ public final class CheckMojo extends AbstractCheckMojo {
   @Parameter(required = false, defaultValue = "${project.build.outputDirectory}")
   private File classesDirectory;
   
+  /**
+   * File to store the results of the last run, if incremental checks are enabled (see {@code incremental}).
+   * @since 2.5
+   */
+  @Parameter(required = false, defaultValue = "${project.build.directory}/forbiddenapis/check.state")
+  private File incrementalStateFile;
+  
   @Override
   protected List<String> getClassPathElements() {
     return this.classpathElements;
@@ -61,4 +68,9 @@ public final class CheckMojo extends AbstractCheckMojo {
     return this.classesDirectory;
   }
   
+  @Override
+  protected File getIncrementalStateFile() {
+    return this.incrementalStateFile;
+  }
+  
 }
\ No newline at end of file
@@ -48,6 +48,13 @@ public final class TestCheckMojo extends AbstractCheckMojo {
   @Parameter(required = false, defaultValue = "${project.build.testOutputDirectory}")
   private File classesDirectory;
   
+  /**
+   * File to store the results of the last run, if incremental checks are enabled (see {@code incremental}).
+   * @since 2.5
+   */
+  @Parameter(required = false, defaultValue = "${project.build.directory}/forbiddenapis/testCheck.state")
+  private File incrementalStateFile;
+  
   /**
    * The default compiler target version used to expand references to bundled JDK signatures.
    * This setting falls back to "targetVersion" if undefined. This can be used to override
@@ -69,6 +76,11 @@ public final class TestCheckMojo extends AbstractCheckMojo {
     return this.classesDirectory;
   }
   
+  @Override
+  protected File getIncrementalStateFile() {
+    return this.incrementalStateFile;
+  }
+  
   @Override
   protected String getTargetVersion() {
     return (testTargetVersion != null) ? testTargetVersion : super.getTargetVersion();
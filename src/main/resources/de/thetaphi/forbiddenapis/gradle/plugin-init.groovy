@@ -46,7 +46,8 @@ def extensionProps = CheckForbiddenApisExtension.class.declaredFields.findAll{ f
 // Define our tasks (one for each SourceSet):
 def forbiddenTasks = project.sourceSets.collect{ sourceSet ->
   def getSourceSetClassesDirs = { sourceSet.output.hasProperty('classesDirs') ? sourceSet.output.classesDirs : project.files(sourceSet.output.classesDir) }
-  project.tasks.create(sourceSet.getTaskName(FORBIDDEN_APIS_TASK_NAME, null), CheckForbiddenApis.class) {
+  def taskName = sourceSet.getTaskName(FORBIDDEN_APIS_TASK_NAME, null);
+  project.tasks.create(taskName, CheckForbiddenApis.class) {
     description = "Runs forbidden-apis checks on '${sourceSet.name}' classes.";
     conventionMapping.with{
       extensionProps.each{ key ->
@@ -55,6 +56,8 @@ def forbiddenTasks = project.sourceSets.collect{ sourceSet ->
       classesDirs = { getSourceSetClassesDirs() }
       classpath = { sourceSet.compileClasspath }
       targetCompatibility = { project.targetCompatibility?.toString() }
+      incrementalStateDir = { new File(project.buildDir, "forbiddenApis/${taskName}") }
+      reportFile = { new File(project.reporting.baseDir, "forbiddenApis/${taskName}.txt") }
     }
     // add dependency to compile task after evaluation, if the classesDirs collection has overlaps with our SourceSet:
     project.afterEvaluate{
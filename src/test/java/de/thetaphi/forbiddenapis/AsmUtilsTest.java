@@ -20,14 +20,31 @@ import static de.thetaphi.forbiddenapis.AsmUtils.glob2Pattern;
 import static de.thetaphi.forbiddenapis.AsmUtils.isGlob;
 import static de.thetaphi.forbiddenapis.AsmUtils.isPortableRuntimeClass;
 import static de.thetaphi.forbiddenapis.AsmUtils.isRuntimeModule;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Method;
 
 public final class AsmUtilsTest {
 
@@ -75,6 +92,26 @@ public final class AsmUtilsTest {
     assertEquals("\\+\\^\\$", glob2Pattern("+^$").pattern());
   }
   
+  @Test
+  public void testClassPatternMatcher() {
+    final ClassPatternRule r1 = new ClassPatternRule("java.**.Array?", "r1"),
+        r2 = new ClassPatternRule("java.util.**", "r2"),
+        r3 = new ClassPatternRule("**.Unsafe", "r3"),
+        r4 = new ClassPatternRule("sun.misc.*", "r4");
+    final ClassPatternMatcher matcher = new ClassPatternMatcher(Arrays.asList(r1, r2, r3, r4));
+    for (int i = 0; i < 2; i++) { // second round is memoized
+      // the first matching rule wins:
+      assertSame(r1, matcher.getMatchingRule("java.util.Arrays"));
+      assertSame(r2, matcher.getMatchingRule("java.util.ArrayList"));
+      assertSame(r3, matcher.getMatchingRule("sun.misc.Unsafe"));
+      assertSame(r4, matcher.getMatchingRule("sun.misc.Signal"));
+      assertNull(matcher.getMatchingRule("sun.misc.foo.Signal"));
+      assertNull(matcher.getMatchingRule("java.lang.String"));
+      assertNull(matcher.getMatchingRule("java.util"));
+    }
+    assertNull(new ClassPatternMatcher(new ArrayList<ClassPatternRule>()).getMatchingRule("java.lang.String"));
+  }
+  
   @Test
   public void testPortableRuntime() {
     assertFalse(isPortableRuntimeClass("sun.misc.Unsafe"));
@@ -97,4 +134,87 @@ public final class AsmUtilsTest {
     assertFalse(isRuntimeModule("foo.bar"));
   }
   
+  @Test
+  public void testReadClass() throws Exception {
+    final byte[] bytes = readResource("AsmUtilsTest.class");
+    // the size is only a hint, so it may be wrong:
+    for (final long size : new long[] { -1L, 0L, 10L, bytes.length, bytes.length + 1000L }) {
+      final ClassReader kept = AsmUtils.readAndPatchClass(new ByteArrayInputStream(bytes), size);
+      assertArrayEquals(bytes, kept.b);
+      final ClassReader transientReader = AsmUtils.readClassTransient(new ByteArrayInputStream(bytes), size);
+      assertEquals(kept.getClassName(), transientReader.getClassName());
+      // the kept reader is not affected by reading the next class file:
+      AsmUtils.readClassTransient(new ByteArrayInputStream(readResource("AsmUtils.class")), size);
+      assertArrayEquals(bytes, kept.b);
+      assertEquals("de/thetaphi/forbiddenapis/AsmUtilsTest", kept.getClassName());
+    }
+  }
+  
+  @Test
+  public void testReadClassSignature() throws Exception {
+    for (final String name : new String[] { "AsmUtilsTest.class", "Checker.class", "Checker$Option.class", "ClassSignature.class" }) {
+      final byte[] bytes = readResource(name);
+      final ClassSignature expected = new ClassSignature(new ClassReader(bytes), true, false);
+      final ClassSignature cs = AsmUtils.readClassSignature(new ByteArrayInputStream(bytes), bytes.length, true);
+      assertTrue(cs.isRuntimeClass);
+      assertEquals(expected.className, cs.className);
+      assertEquals(expected.superName, cs.superName);
+      assertArrayEquals(expected.interfaces, cs.interfaces);
+      assertEquals(expected.methods, cs.methods);
+      assertEquals(expected.fields, cs.fields);
+      assertEquals(expected.getFingerprint(), cs.getFingerprint());
+    }
+    final byte[] bytes = readResource("AsmUtilsTest.class");
+    try {
+      // cut in the middle of the method table (class attributes at the end are not read):
+      AsmUtils.readClassSignature(new ByteArrayInputStream(bytes, 0, bytes.length / 2), -1L, false);
+      fail("Truncated class file should fail");
+    } catch (IllegalArgumentException iae) {
+      // expected
+    }
+  }
+  
+  @Test
+  public void testClassSignatureMembers() throws Exception {
+    for (final Class<?> clazz : new Class<?>[] { Checker.class, CheckerSetupTest.class, ClassSignature.class, Checker.Option.class }) {
+      final InputStream in = clazz.getResourceAsStream(clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class");
+      final ClassReader reader = AsmUtils.readAndPatchClass(in);
+      in.close();
+      final ClassSignature cs = new ClassSignature(reader, false, false);
+      // compare with the members visited by ASM:
+      final Set<Method> methods = new HashSet<Method>();
+      final Set<String> fields = new HashSet<String>();
+      reader.accept(new ClassVisitor(Opcodes.ASM6) {
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+          methods.add(new Method(name, desc));
+          return null;
+        }
+        
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+          fields.add(name);
+          return null;
+        }
+      }, ClassReader.SKIP_CODE);
+      assertEquals(methods, cs.methods);
+      assertEquals(fields, cs.fields);
+      assertFalse(cs.methods.isEmpty());
+    }
+  }
+  
+  private static byte[] readResource(String name) throws IOException {
+    final InputStream in = AsmUtilsTest.class.getResourceAsStream(name);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buf = new byte[8192];
+      for (int len; (len = in.read(buf)) > 0;) {
+        out.write(buf, 0, len);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+  
 }
@@ -21,16 +21,40 @@ import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
 import static org.junit.Assume.assumeNoException;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 public final class CheckerSetupTest {
   
   protected Checker checker;
   
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+  
   @Before
   public void setUp() {
     checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES, FAIL_ON_VIOLATION, FAIL_ON_UNRESOLVABLE_SIGNATURES);
@@ -69,7 +93,7 @@ public final class CheckerSetupTest {
     checker.parseSignaturesString("java.lang.String#CASE_INSENSITIVE_ORDER @ Foobar");
     assertEquals(Collections.emptyMap(), checker.forbiddenClasses);
     assertEquals(Collections.emptySet(), checker.forbiddenClassPatterns);
-    assertEquals(Collections.singletonMap("java/lang/String\000CASE_INSENSITIVE_ORDER", "java.lang.String#CASE_INSENSITIVE_ORDER [Foobar]"), checker.forbiddenFields);
+    assertEquals(Collections.singletonMap("java/lang/String", Collections.singletonMap("CASE_INSENSITIVE_ORDER", "java.lang.String#CASE_INSENSITIVE_ORDER [Foobar]")), checker.forbiddenFields);
     assertEquals(Collections.emptyMap(), checker.forbiddenMethods);
   }
 
@@ -79,7 +103,8 @@ public final class CheckerSetupTest {
     assertEquals(Collections.emptyMap(), checker.forbiddenClasses);
     assertEquals(Collections.emptySet(), checker.forbiddenClassPatterns);
     assertEquals(Collections.emptyMap(), checker.forbiddenFields);
-    assertEquals(Collections.singletonMap("java/lang/Object\000toString()Ljava/lang/String;", "java.lang.Object#toString() [Foobar]"), checker.forbiddenMethods);
+    assertEquals(Collections.singletonMap("java/lang/Object", Collections.singletonMap("toString",
+        Collections.singletonMap("()Ljava/lang/String;", "java.lang.Object#toString() [Foobar]"))), checker.forbiddenMethods);
   }
   
   @Test
@@ -95,6 +120,180 @@ public final class CheckerSetupTest {
     assertTrue(cs.signaturePolymorphicMethods.isEmpty());
   }
   
+  @Test
+  public void testConcurrentRelatedClassLookup() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<ClassSignature>> results = new ArrayList<Future<ClassSignature>>();
+      for (int i = 0; i < 64; i++) {
+        results.add(executor.submit(new Callable<ClassSignature>() {
+          @Override
+          public ClassSignature call() {
+            return checker.lookupRelatedClass("java/util/ArrayList");
+          }
+        }));
+      }
+      final ClassSignature first = results.get(0).get();
+      assertEquals("java/util/ArrayList", first.className);
+      for (final Future<ClassSignature> f : results) {
+        assertSame(first, f.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  
+  @Test
+  public void testMissingRelatedClassIsCached() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      try {
+        checker.lookupRelatedClass("foo/bar/DoesNotExist");
+        fail("Missing class should fail");
+      } catch (WrapperRuntimeException we) {
+        assertTrue(we.getCause() instanceof ClassNotFoundException);
+      }
+    }
+    assertTrue(checker.classpathClassCache.containsKey("foo.bar.DoesNotExist"));
+  }
+  
+  @Test
+  public void testReportFile() throws Exception {
+    final File reportFile = new File(tempDir.getRoot(), "reports/forbidden.txt");
+    final Checker chk = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    chk.setReportFile(reportFile);
+    chk.parseSignaturesString("java.util.concurrent.Executors @ Foobar");
+    chk.addClassToCheck(CheckerSetupTest.class.getResourceAsStream("CheckerSetupTest.class"), "CheckerSetupTest.class");
+    chk.run();
+    assertTrue(reportFile.isFile());
+    final byte[] bytes = new byte[(int) reportFile.length()];
+    final DataInputStream in = new DataInputStream(new FileInputStream(reportFile));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    final String report = new String(bytes, "UTF-8");
+    assertTrue(report, report.startsWith("Forbidden class/interface use: java.util.concurrent.Executors [Foobar]"));
+  }
+  
+  @Test
+  public void testStreaming() throws Exception {
+    final File classFile = writeTestClassFile(tempDir.getRoot());
+    checker.setStreaming(true);
+    checker.parseSignaturesString("java.util.concurrent.Executors @ Foobar");
+    checker.addClassToCheck(classFile);
+    assertEquals(classFile, checker.streamedClassFiles.get(CheckerSetupTest.class.getName()));
+    try {
+      checker.classesToCheck.get(CheckerSetupTest.class.getName()).getReader();
+      fail("Streamed class should not keep its bytecode");
+    } catch (IllegalStateException ise) {
+      // pass
+    }
+    try {
+      checker.run();
+      fail("Should fail with violation");
+    } catch (ForbiddenApiException fae) {
+      // pass, the class file was read again
+    }
+  }
+  
+  @Test
+  public void testParallelLoading() throws Exception {
+    final File classFile = writeTestClassFile(tempDir.getRoot());
+    final File dir = new File(CheckerSetupTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    final List<String> names = new ArrayList<String>();
+    for (final String name : new File(dir, "de/thetaphi/forbiddenapis").list()) {
+      if (name.endsWith(".class")) {
+        names.add("de/thetaphi/forbiddenapis/" + name);
+      }
+    }
+    checker.setThreads(4);
+    checker.addClassesToCheck(dir, names);
+    assertEquals(names.size(), checker.classesToCheck.size());
+    // duplicates are resolved in order, the last file wins:
+    checker.setStreaming(true);
+    checker.addClassesToCheck(Arrays.asList(new File(dir, "de/thetaphi/forbiddenapis/CheckerSetupTest.class"), classFile));
+    assertEquals(classFile, checker.streamedClassFiles.get(CheckerSetupTest.class.getName()));
+    try {
+      checker.addClassesToCheck(Arrays.asList(classFile, new File(dir, "missing.class")));
+      fail("Should fail for missing class file");
+    } catch (FileNotFoundException fnfe) {
+      // pass
+    }
+  }
+  
+  @Test
+  public void testParallelRunMatchesSequential() throws Exception {
+    final List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 40; i++) {
+      final String name = String.format(Locale.ENGLISH, "p/C%02d", i);
+      // every third class has a missing superclass, so a warning is logged while checking it:
+      writeGeneratedClass(tempDir.getRoot(), name, (i % 3 == 0) ? "p/Missing" + i : "java/lang/Object");
+      names.add(name + ".class");
+    }
+    final List<List<String>> logs = new ArrayList<List<String>>();
+    final List<String> reports = new ArrayList<String>();
+    final Thread testThread = Thread.currentThread();
+    final boolean[] loggedByOtherThread = new boolean[1];
+    for (final int threads : new int[] { 1, 4 }) {
+      final List<String> log = new ArrayList<String>();
+      final Logger logger = new Logger() {
+        private void log(String msg) {
+          if (Thread.currentThread() != testThread) {
+            loggedByOtherThread[0] = true;
+          }
+          // the summary contains the time:
+          if (!msg.startsWith("Scanned ")) {
+            log.add(msg);
+          }
+        }
+        @Override
+        public void error(String msg) {
+          log("ERROR: " + msg);
+        }
+        @Override
+        public void warn(String msg) {
+          log("WARNING: " + msg);
+        }
+        @Override
+        public void info(String msg) {
+          log(msg);
+        }
+      };
+      final File reportFile = new File(tempDir.getRoot(), "report-" + threads + ".txt");
+      final Checker chk = new Checker(logger, ClassLoader.getSystemClassLoader(), FAIL_ON_UNRESOLVABLE_SIGNATURES);
+      chk.setThreads(threads);
+      chk.setReportFile(reportFile);
+      chk.parseSignaturesString("java.lang.Object#toString() @ Foobar");
+      chk.addClassesToCheck(new File(tempDir.getRoot(), "classes"), names);
+      chk.run();
+      logs.add(log);
+      final byte[] bytes = new byte[(int) reportFile.length()];
+      final DataInputStream in = new DataInputStream(new FileInputStream(reportFile));
+      try {
+        in.readFully(bytes);
+      } finally {
+        in.close();
+      }
+      reports.add(new String(bytes, "UTF-8"));
+    }
+    assertTrue(logs.get(0).toString(), logs.get(0).contains("ERROR: Forbidden method invocation: java.lang.Object#toString() [Foobar]"));
+    assertTrue(logs.get(0).toString(), logs.get(0).contains("WARNING: The referenced class 'p.Missing39' cannot be loaded. Please fix the classpath!"));
+    assertEquals(logs.get(0), logs.get(1));
+    assertEquals(reports.get(0), reports.get(1));
+    assertFalse("Worker threads must not call the logger", loggedByOtherThread[0]);
+  }
+
+  @Test
+  public void testLazyBundledSignatures() throws Exception {
+    checker.addBundledSignatures("jdk-deprecated-1.8", null);
+    assertFalse(checker.hasNoSignatures());
+    assertFalse(checker.forbiddenMethods.containsKey("java/lang/String"));
+    // loading the class resolves the pending signatures:
+    checker.lookupRelatedClass("java/lang/String");
+    assertEquals("java.lang.String#getBytes(int,int,byte[],int) [Deprecated in Java 1.8]", checker.forbiddenMethods.get("java/lang/String").get("getBytes").get("(II[BI)V"));
+  }
+
   @Test
   public void testSignaturePolymorphic() throws Exception {
     try {
@@ -123,4 +322,65 @@ public final class CheckerSetupTest {
     assertSame(moduleClass, checker.method_Module_getName.getDeclaringClass());
   }
 
+  @Test
+  public void testTargetRuntimeAfterSignatures() throws Exception {
+    checker.parseSignaturesString("java.lang.Object#hashCode()");
+    try {
+      checker.setTargetRuntime(new File(System.getProperty("java.home")), 0);
+      fail("Should not be allowed after adding signatures");
+    } catch (IllegalStateException ise) {
+      // pass
+    }
+  }
+  
+  /** Writes a class (internal name) to the {@code classes} folder in the given directory, which calls the inherited {@code toString()} method. */
+  static File writeGeneratedClass(File dir, String name, String superName) throws IOException {
+    final ClassWriter cw = new ClassWriter(0);
+    cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, superName, null);
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+    mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "describe", "()Ljava/lang/String;", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "toString", "()Ljava/lang/String;", false);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitMaxs(1, 1);
+    mv.visitEnd();
+    cw.visitEnd();
+    final File classFile = new File(dir, "classes/" + name + ".class");
+    classFile.getParentFile().mkdirs();
+    final OutputStream out = new FileOutputStream(classFile);
+    try {
+      out.write(cw.toByteArray());
+    } finally {
+      out.close();
+    }
+    return classFile;
+  }
+  
+  /** Copies the class file of this test (which uses {@code java.util.concurrent.Executors}) to the given directory. */
+  static File writeTestClassFile(File dir) throws IOException {
+    final File classFile = new File(dir, "CheckerSetupTest.class");
+    final InputStream in = CheckerSetupTest.class.getResourceAsStream("CheckerSetupTest.class");
+    try {
+      final OutputStream out = new FileOutputStream(classFile);
+      try {
+        final byte[] buf = new byte[8192];
+        for (int len; (len = in.read(buf)) > 0;) {
+          out.write(buf, 0, len);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+    return classFile;
+  }
+  
 }
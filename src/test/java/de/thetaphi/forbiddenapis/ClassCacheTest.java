@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class ClassCacheTest {
+
+  private Checker checker;
+
+  @Before
+  public void setUp() {
+    checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES, FAIL_ON_VIOLATION, FAIL_ON_UNRESOLVABLE_SIGNATURES);
+    assumeTrue("This test only works with a supported JDK (see docs)", checker.isSupportedJDK);
+  }
+
+  @Test
+  public void testSharedClasses() throws Exception {
+    final ClassCache cache = new ClassCache();
+    checker.setClassCache(cache);
+    // the constructor already loads java.lang.Object, so use another runtime class:
+    final ClassSignature c = checker.lookupRelatedClass("java/util/ArrayList");
+    assertTrue(c.isRuntimeClass);
+    // a second checker must reuse the signature read by the first one:
+    final Checker checker2 = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    checker2.setClassCache(cache);
+    assertSame(c, checker2.lookupRelatedClass("java/util/ArrayList"));
+    cache.clear();
+    final Checker checker3 = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    checker3.setClassCache(cache);
+    assertNotSame(c, checker3.lookupRelatedClass("java/util/ArrayList"));
+  }
+
+  @Test
+  public void testSharedBundledSignatures() throws Exception {
+    final ClassCache cache = new ClassCache();
+    checker.setClassCache(cache);
+    checker.addBundledSignatures("jdk-unsafe-1.8", null);
+    assertNotNull(cache.getBundledSignatures("jdk-unsafe-1.8"));
+    // includes are cached separately:
+    assertNotNull(cache.getBundledSignatures("jdk-unsafe-1.7"));
+    final Checker checker2 = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    checker2.setClassCache(cache);
+    checker2.addBundledSignatures("jdk-unsafe-1.8", null);
+    checker.lookupRelatedClass("java/lang/String");
+    checker2.lookupRelatedClass("java/lang/String");
+    assertEquals(checker.forbiddenMethods.get("java/lang/String"), checker2.forbiddenMethods.get("java/lang/String"));
+    assertNotNull(checker2.forbiddenMethods.get("java/lang/String"));
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ClasspathIndexTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testDirectoriesAndJars() throws Exception {
+    final File jar = new File(tempDir.getRoot(), "test.jar");
+    final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new JarEntry("foo/Bar.class"));
+      out.write(1);
+      out.putNextEntry(new JarEntry("foo/Baz.class"));
+      out.write(1);
+    } finally {
+      out.close();
+    }
+    final File dir = tempDir.newFolder("classes");
+    assertTrue(new File(dir, "foo").mkdir());
+    assertTrue(new File(dir, "foo/Baz.class").createNewFile());
+    
+    final ClasspathIndex index = ClasspathIndex.open(Arrays.asList(jar, dir, new File(tempDir.getRoot(), "missing")));
+    try {
+      assertEquals(jar, index.find("foo/Bar.class").jar);
+      // the JAR file comes first:
+      assertEquals(jar, index.find("foo/Baz.class").jar);
+      assertNull(index.find("foo/Missing.class"));
+    } finally {
+      index.close();
+    }
+    
+    final ClasspathIndex index2 = ClasspathIndex.open(Arrays.asList(dir, jar));
+    try {
+      // the directory comes first:
+      assertNull(index2.find("foo/Baz.class").jar);
+      final InputStream in = index2.find("foo/Bar.class").open();
+      try {
+        assertEquals(1, in.read());
+      } finally {
+        in.close();
+      }
+    } finally {
+      index2.close();
+    }
+  }
+
+  @Test
+  public void testIgnoresNonJarFiles() throws Exception {
+    final File text = tempDir.newFile("notes.txt");
+    final OutputStream out = new FileOutputStream(text);
+    try {
+      out.write("no zip file".getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    CheckerSetupTest.writeGeneratedClass(tempDir.getRoot(), "p/B", "java/lang/Object");
+    final File dir = new File(tempDir.getRoot(), "classes");
+    final ClasspathIndex index = ClasspathIndex.open(Arrays.asList(text, dir));
+    try {
+      assertNull(index.find("p/B.class").jar);
+    } finally {
+      index.close();
+    }
+    
+    final URLClassLoader loader = new URLClassLoader(new URL[] { text.toURI().toURL(), dir.toURI().toURL() }, ClassLoader.getSystemClassLoader());
+    final Checker chk = new Checker(StdIoLogger.INSTANCE, loader, FAIL_ON_MISSING_CLASSES, FAIL_ON_VIOLATION);
+    chk.parseSignaturesString("java.lang.Object#toString() @ Foobar");
+    chk.addClassToCheck(CheckerSetupTest.writeGeneratedClass(tempDir.getRoot(), "p/A", "p/B"));
+    try {
+      chk.run();
+      fail("Should fail with violation");
+    } catch (ForbiddenApiException fae) {
+      // pass
+    }
+  }
+
+  @Test
+  public void testClassPathAttribute() throws Exception {
+    final File dir = tempDir.newFolder("classes");
+    assertTrue(new File(dir, "foo").mkdir());
+    assertTrue(new File(dir, "foo/Dir.class").createNewFile());
+    assertTrue(tempDir.newFolder("lib").isDirectory());
+    final File main = writeJar("main.jar", "lib/lib.jar classes/ missing.jar", null, "foo/Main.class");
+    // refers back to the main JAR file, which must not be indexed twice:
+    final File lib = writeJar("lib/lib.jar", "../main.jar", null, "foo/Lib.class", "foo/Other.class");
+    final File other = writeJar("other.jar", null, null, "foo/Other.class", "foo/Dir.class");
+
+    final ClasspathIndex index = ClasspathIndex.open(Arrays.asList(main, other));
+    try {
+      assertTrue(index.isComplete());
+      assertEquals(main, index.find("foo/Main.class").jar);
+      assertEquals(lib, index.find("foo/Lib.class").jar);
+      // the elements of the Class-Path attribute come before the next element of the classpath:
+      assertEquals(lib, index.find("foo/Other.class").jar);
+      assertNull(index.find("foo/Dir.class").jar);
+      assertNull(index.find("foo/Missing.class"));
+    } finally {
+      index.close();
+    }
+  }
+
+  @Test
+  public void testRemoteClassPath() throws Exception {
+    final File jar = writeJar("remote.jar", "http://localhost/lib.jar", null, "foo/Bar.class");
+    final ClasspathIndex index = ClasspathIndex.open(Arrays.asList(jar));
+    try {
+      // classes that are not indexed must be looked up using the ClassLoader:
+      assertFalse(index.isComplete());
+      assertEquals(jar, index.find("foo/Bar.class").jar);
+    } finally {
+      index.close();
+    }
+  }
+
+  @Test
+  public void testMultiRelease() throws Exception {
+    final File jar = writeJar("mr.jar", null, "true", "foo/Bar.class", "META-INF/versions/9/foo/Bar.class",
+        "META-INF/versions/11/foo/Java11.class");
+    final File plain = writeJar("plain.jar", null, null, "foo/Plain.class", "META-INF/versions/9/foo/Java9.class");
+    final ClasspathIndex index = ClasspathIndex.open(Arrays.asList(jar, plain));
+    try {
+      assertTrue(index.find("foo/Bar.class").multiRelease);
+      // classes only existing in a versioned folder must be found, too:
+      assertEquals(jar, index.find("foo/Java11.class").jar);
+      assertTrue(index.find("foo/Java11.class").multiRelease);
+      assertFalse(index.find("foo/Plain.class").multiRelease);
+      // versioned folders are only special in multi-release JAR files:
+      assertNull(index.find("foo/Java9.class"));
+    } finally {
+      index.close();
+    }
+  }
+
+  /** Writes a JAR file with the given {@code Class-Path} and {@code Multi-Release} manifest attributes (may be {@code null}) and entries. */
+  private File writeJar(String name, String classPath, String multiRelease, String... entries) throws IOException {
+    final Manifest manifest = new Manifest();
+    final Attributes attr = manifest.getMainAttributes();
+    attr.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    if (classPath != null) {
+      attr.put(Attributes.Name.CLASS_PATH, classPath);
+    }
+    if (multiRelease != null) {
+      attr.put(new Attributes.Name("Multi-Release"), multiRelease);
+    }
+    final File jar = new File(tempDir.getRoot(), name);
+    final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+    try {
+      for (final String entry : entries) {
+        out.putNextEntry(new JarEntry(entry));
+        out.write(1);
+      }
+    } finally {
+      out.close();
+    }
+    return jar;
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class IncrementalStateTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testIncrementalCheck() throws Exception {
+    final File stateFile = new File(tempDir.getRoot(), "forbidden.state");
+    final File classFile = CheckerSetupTest.writeTestClassFile(tempDir.getRoot());
+    final List<String> messages = new ArrayList<String>();
+    final Logger logger = new Logger() {
+      @Override
+      public void error(String msg) {
+        messages.add("ERROR: " + msg);
+      }
+      @Override
+      public void warn(String msg) {
+        messages.add("WARN: " + msg);
+      }
+      @Override
+      public void info(String msg) {
+        if (msg.startsWith("Incremental check:")) {
+          messages.add(msg);
+        }
+      }
+    };
+    final String[] signatures = { "java.util.concurrent.Executors", "java.util.concurrent.Executors", "java.util.concurrent.Executors", "java.util.concurrent.Future" };
+    final List<List<String>> runs = new ArrayList<List<String>>();
+    for (int i = 0; i < signatures.length; i++) {
+      final Checker chk = new Checker(logger, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+      chk.setIncrementalStateFile(stateFile);
+      chk.parseSignaturesString(signatures[i]);
+      chk.addClassToCheck(classFile);
+      chk.run();
+      runs.add(new ArrayList<String>(messages));
+      messages.clear();
+    }
+    assertTrue(stateFile.isFile());
+    // first run scans, the following ones replay the violations:
+    assertEquals("Incremental check: 0 of 1 class file(s) unchanged since last run, their previous results were reused.", runs.get(0).get(runs.get(0).size() - 1));
+    assertTrue(runs.get(0).size() > 1);
+    for (int i = 1; i <= 2; i++) {
+      assertEquals("Incremental check: 1 of 1 class file(s) unchanged since last run, their previous results were reused.", runs.get(i).get(runs.get(i).size() - 1));
+      assertEquals(runs.get(0).subList(0, runs.get(0).size() - 1), runs.get(i).subList(0, runs.get(i).size() - 1));
+    }
+    // changed signatures must scan again:
+    assertEquals("Incremental check: 0 of 1 class file(s) unchanged since last run, their previous results were reused.", runs.get(3).get(runs.get(3).size() - 1));
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ResolutionCacheTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testSharedByClasses() throws Exception {
+    // both classes call the same forbidden constructor and extend the same class with a forbidden supertype:
+    final File classA = CheckerSetupTest.writeGeneratedClass(tempDir.getRoot(), "p/A", "java/util/ArrayList");
+    final File classB = CheckerSetupTest.writeGeneratedClass(tempDir.getRoot(), "p/B", "java/util/ArrayList");
+    final List<String> errors = new ArrayList<String>();
+    final Logger logger = new Logger() {
+      @Override
+      public void error(String msg) {
+        errors.add(msg);
+      }
+      @Override
+      public void warn(String msg) {}
+      @Override
+      public void info(String msg) {}
+    };
+    // the resolutions are cached per run, so check each class in its own run first:
+    final List<String> expected = new ArrayList<String>();
+    for (final File classFile : Arrays.asList(classA, classB, null)) {
+      final Checker chk = new Checker(logger, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+      chk.parseSignaturesString("java.util.ArrayList#<init>() @ Foobar\njava.util.AbstractCollection @ Foobar");
+      if (classFile != null) {
+        chk.addClassToCheck(classFile);
+      } else {
+        chk.addClassesToCheck(classA, classB);
+      }
+      chk.run();
+      if (classFile != null) {
+        expected.addAll(errors);
+        errors.clear();
+      }
+    }
+    assertTrue(expected.toString(), expected.contains("Forbidden method invocation: java.util.ArrayList#<init>() [Foobar]"));
+    assertTrue(expected.toString(), expected.contains("Forbidden class/interface use: java.util.AbstractCollection [Foobar]"));
+    assertTrue(expected.toString(), expected.contains("  in p.B (method body of '<init>()')"));
+    assertEquals(expected, errors);
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.commons.Method;
+
+public final class RuntimeImageTest {
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testCtSymWithoutModules() throws Exception {
+    // layout of JDK 9 to 11:
+    final File ctSym = writeCtSym("876/java/lang/Object.sig", "9A/java/lang/Object.sig", "9A/java/lang/Module.sig",
+        "9-modules/java.base/module-info.sig", "B/system-modules");
+    final RuntimeImage image = RuntimeImage.openRelease(ctSym, 8);
+    try {
+      final RuntimeImage.Resource res = image.find("java/lang/Object.class");
+      assertNotNull(res);
+      assertNull(res.module);
+      assertNull(image.find("java/lang/Module.class"));
+      assertNull(image.find("lang/Object.class"));
+    } finally {
+      image.close();
+    }
+    assertReleaseUnsupported(ctSym, 11);
+  }
+
+  @Test
+  public void testCtSymWithModules() throws Exception {
+    // layout of JDK 12+, but older releases may still come without modules:
+    final File ctSym = writeCtSym("7/java/lang/Object.sig", "89A/java.base/java/lang/Object.sig",
+        "9A/java.base/java/lang/Module.sig", "9A/jdk.unsupported/sun/misc/Unsafe.sig", "B/system-modules");
+    RuntimeImage image = RuntimeImage.openRelease(ctSym, 9);
+    try {
+      assertEquals("java.base", image.find("java/lang/Object.class").module);
+      assertEquals("java.base", image.find("java/lang/Module.class").module);
+      assertEquals("jdk.unsupported", image.find("sun/misc/Unsafe.class").module);
+    } finally {
+      image.close();
+    }
+    image = RuntimeImage.openRelease(ctSym, 7);
+    try {
+      assertNull(image.find("java/lang/Object.class").module);
+      assertNull(image.find("java/lang/Module.class"));
+    } finally {
+      image.close();
+    }
+    assertReleaseUnsupported(ctSym, 11);
+  }
+
+  @Test
+  public void testRuntimeImage() throws Exception {
+    final RuntimeImage image = RuntimeImage.open();
+    assumeTrue("This test only works with Java 9+", image != null);
+    final RuntimeImage.Resource res = image.find("java/lang/Object.class");
+    assertNotNull(res);
+    assertEquals("java.base", res.module);
+    final InputStream in = res.open();
+    try {
+      assertEquals(0xCA, in.read());
+    } finally {
+      in.close();
+    }
+    assertNull(image.find("java/lang/DoesNotExist.class"));
+    assertNull(image.find("de/thetaphi/forbiddenapis/Checker.class"));
+    assertNull(image.find("Foo.class"));
+    assertTrue(newChecker().lookupRelatedClass("java/lang/Object").isRuntimeClass);
+  }
+
+  @Test
+  public void testTargetJavaHome() throws Exception {
+    final Checker checker = newChecker();
+    // use the running JVM's installation, but read it like a different one:
+    checker.setTargetRuntime(new File(System.getProperty("java.home")), 0);
+    final ClassSignature c = checker.lookupRelatedClass("java/lang/Object");
+    assertTrue(c.isRuntimeClass);
+    assertTrue(c.methods.contains(new Method("hashCode", "()I")));
+    assertFalse(checker.lookupRelatedClass("de/thetaphi/forbiddenapis/Checker").isRuntimeClass);
+  }
+
+  @Test
+  public void testTargetRelease() throws Exception {
+    final File ctSym = new File(System.getProperty("java.home"), "lib/ct.sym");
+    assumeTrue("This test only works with Java 10+", ctSym.isFile() && RuntimeImage.open() != null
+        && !System.getProperty("java.specification.version").equals("9"));
+    final Checker checker = newChecker();
+    checker.setTargetRuntime(null, 9);
+    assertTrue(checker.lookupRelatedClass("java/lang/Object").isRuntimeClass);
+    // added in Java 9, so the release data differs from the release 8 (which is stored without modules in some JDKs):
+    assertTrue(checker.lookupRelatedClass("java/lang/Runtime$Version").isRuntimeClass);
+    checker.setTargetRuntime(null, 8);
+    assertTrue(checker.lookupRelatedClass("java/lang/Object").isRuntimeClass);
+    try {
+      checker.lookupRelatedClass("java/lang/Runtime$Version");
+      fail("Class is not part of release 8");
+    } catch (WrapperRuntimeException wre) {
+      assertTrue(wre.getCause() instanceof ClassNotFoundException);
+    }
+    checker.setTargetRuntime(null, 9);
+    // added in Java 10:
+    assertFalse(checker.lookupRelatedClass("java/lang/Runtime$Version").methods.contains(new Method("feature", "()I")));
+    try {
+      checker.setTargetRuntime(null, 1);
+      fail("Release 1 is not in ct.sym");
+    } catch (IOException ioe) {
+      // pass
+    }
+  }
+
+  @Test
+  public void testTargetRuntimeIdentity() throws Exception {
+    // two copies of the same (fake) Java 8 installation in different locations:
+    final File home1 = tempDir.newFolder("jre1"), home2 = tempDir.newFolder("jre2");
+    final File rtJar1 = new File(home1, "lib/rt.jar"), rtJar2 = new File(home2, "lib/rt.jar");
+    for (final File f : new File[] { rtJar1, rtJar2 }) {
+      assertTrue(f.getParentFile().mkdirs());
+      final FileOutputStream out = new FileOutputStream(f);
+      try {
+        out.write(new byte[] { 'P', 'K', 5, 6 });
+      } finally {
+        out.close();
+      }
+      assertTrue(f.setLastModified(1500000000000L));
+    }
+    assertEquals(Checker.getTargetRuntimeIdentity(home1, 0), Checker.getTargetRuntimeIdentity(home2, 0));
+    assertFalse(Checker.getTargetRuntimeIdentity(home1, 0).equals(Checker.getTargetRuntimeIdentity(home1, 8)));
+    assertTrue(rtJar2.setLastModified(1600000000000L));
+    assertFalse(Checker.getTargetRuntimeIdentity(home1, 0).equals(Checker.getTargetRuntimeIdentity(home2, 0)));
+  }
+
+  private static void assertReleaseUnsupported(File ctSym, int release) {
+    try {
+      RuntimeImage.openRelease(ctSym, release).close();
+      fail("Release " + release + " is not part of " + ctSym);
+    } catch (IOException ioe) {
+      // pass
+    }
+  }
+
+  private static Checker newChecker() {
+    final Checker checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES, FAIL_ON_VIOLATION, FAIL_ON_UNRESOLVABLE_SIGNATURES);
+    assumeTrue("This test only works with a supported JDK (see docs)", checker.isSupportedJDK);
+    return checker;
+  }
+
+  /** Writes a {@code ct.sym} file with the given (empty) entries. */
+  private File writeCtSym(String... entries) throws IOException {
+    final File f = tempDir.newFile("ct.sym");
+    final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(f));
+    try {
+      for (final String name : entries) {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+    return f;
+  }
+
+}
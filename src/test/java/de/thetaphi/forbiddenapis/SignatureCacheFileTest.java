@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.commons.Method;
+
+public final class SignatureCacheFileTest {
+
+  private static final String IDENTITY = "test-runtime";
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void testSaveAndOpen() throws Exception {
+    final File file = new File(tempDir.getRoot(), "cache/runtime.bin");
+    final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+    assertFalse(cache.isModified());
+    cache.add(newSignature("p/A"));
+    cache.add(newSignature("p/B"));
+    assertTrue(cache.isModified());
+    cache.save();
+
+    final SignatureCacheFile reopened = SignatureCacheFile.open(file, IDENTITY);
+    assertFalse(reopened.isModified());
+    assertSignature("p/A", reopened.get("p.A"));
+    assertSignature("p/B", reopened.get("p.B"));
+    assertNull(reopened.get("p.C"));
+
+    // another identity discards the contents:
+    assertNull(SignatureCacheFile.open(file, "other-runtime").get("p.A"));
+  }
+
+  @Test
+  public void testSaveWhileOpen() throws Exception {
+    final File file = writeCache("p/A");
+    final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+    final SignatureCacheFile other = SignatureCacheFile.open(file, IDENTITY);
+    cache.add(newSignature("p/B"));
+    cache.save();
+    // the file is replaced, but both instances still see their contents:
+    assertSignature("p/A", cache.get("p.A"));
+    assertSignature("p/A", other.get("p.A"));
+    assertSignature("p/B", SignatureCacheFile.open(file, IDENTITY).get("p.B"));
+  }
+
+  @Test
+  public void testTruncatedFile() throws Exception {
+    final File file = writeCache("p/A", "p/B");
+    final long length = file.length();
+    for (long len = length - 1; len >= 0; len--) {
+      truncate(file, len);
+      // never fails, at most the last entry is truncated:
+      final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+      final ClassSignature a = cache.get("p.A"), b = cache.get("p.B");
+      if (a != null) {
+        assertSignature("p/A", a);
+      }
+      assertNull(b);
+      assertTrue("Truncated file must be rewritten (length " + len + ")", len == 0 || cache.isModified());
+    }
+  }
+
+  @Test
+  public void testShortHeader() throws Exception {
+    final File file = new File(tempDir.getRoot(), "runtime.bin");
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[] { 0x46, 0x41 });
+    } finally {
+      out.close();
+    }
+    final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+    assertNull(cache.get("p.A"));
+    cache.add(newSignature("p/A"));
+    cache.save();
+    assertSignature("p/A", SignatureCacheFile.open(file, IDENTITY).get("p.A"));
+  }
+
+  @Test
+  public void testCorruptEntries() throws Exception {
+    final File file = writeCache("p/A", "p/B");
+    final long length = file.length();
+    // overwrite the contents of the second entry (the data is at the end of the file):
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(length - 8);
+      raf.write(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff });
+    } finally {
+      raf.close();
+    }
+    final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+    assertFalse(cache.isModified());
+    assertSignature("p/A", cache.get("p.A"));
+    assertNull(cache.get("p.B"));
+    assertTrue(cache.isModified());
+    // the class can be added again and the file is rewritten:
+    cache.add(newSignature("p/B"));
+    cache.save();
+    final SignatureCacheFile reopened = SignatureCacheFile.open(file, IDENTITY);
+    assertSignature("p/A", reopened.get("p.A"));
+    assertSignature("p/B", reopened.get("p.B"));
+  }
+
+  @Test
+  public void testPersistentRuntimeCache() throws Exception {
+    final Checker checker = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    assumeTrue("This test only works with a supported JDK (see docs)", checker.isSupportedJDK);
+    checker.setCacheDirectory(tempDir.getRoot());
+    final ClassSignature cs = checker.lookupRelatedClass("java/lang/String");
+    checker.run(); // writes the cache
+    
+    final Checker checker2 = new Checker(StdIoLogger.INSTANCE, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES);
+    checker2.setCacheDirectory(tempDir.getRoot());
+    final ClassSignature cached = checker2.lookupRelatedClass("java/lang/String");
+    assertNotSame(cs, cached);
+    assertTrue(cached.isRuntimeClass);
+    assertEquals(cs.className, cached.className);
+    assertEquals(cs.superName, cached.superName);
+    assertArrayEquals(cs.interfaces, cached.interfaces);
+    assertEquals(cs.methods, cached.methods);
+    assertEquals(cs.fields, cached.fields);
+    assertEquals(cs.signaturePolymorphicMethods, cached.signaturePolymorphicMethods);
+  }
+
+  private File writeCache(String... classNames) throws IOException {
+    final File file = new File(tempDir.getRoot(), "runtime.bin");
+    final SignatureCacheFile cache = SignatureCacheFile.open(file, IDENTITY);
+    for (final String className : classNames) {
+      cache.add(newSignature(className));
+    }
+    cache.save();
+    return file;
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(length);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static ClassSignature newSignature(String className) {
+    return new ClassSignature(className, "java/lang/Object", new String[] { "java/io/Serializable" }, true,
+        Arrays.asList(new Method("<init>", "()V"), new Method("run", "(I)Ljava/lang/String;")),
+        Collections.singleton("field"), Collections.<String>emptySet());
+  }
+
+  private static void assertSignature(String className, ClassSignature c) {
+    assertNotNull(className, c);
+    assertEquals(className, c.className);
+    assertEquals("java/lang/Object", c.superName);
+    assertEquals(Arrays.asList("java/io/Serializable"), Arrays.asList(c.interfaces));
+    assertTrue(c.isRuntimeClass);
+    assertEquals(2, c.methods.size());
+    assertTrue(c.methods.contains(new Method("run", "(I)Ljava/lang/String;")));
+    assertEquals(Collections.singleton("field"), c.fields);
+  }
+
+}
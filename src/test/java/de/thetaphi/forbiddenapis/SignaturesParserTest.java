@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class SignaturesParserTest {
+
+  @Test
+  public void testCompiledSignatures() throws Exception {
+    final String signatures = "@defaultMessage Foobar\n@ignoreUnresolvable\njava.lang.Object#toString()\njava.lang.** @ Some message\n";
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SignaturesParser.compile(new StringReader(signatures), out);
+    final List<String> parsed = new ArrayList<String>();
+    SignaturesParser.parseCompiled(new ByteArrayInputStream(out.toByteArray()), new SignaturesParser.Handler() {
+      @Override
+      public void includeBundled(String name) {
+        fail("No includes expected");
+      }
+
+      @Override
+      public void addSignature(ParsedSignature signature, boolean ignoreUnresolvable) {
+        assertTrue(ignoreUnresolvable);
+        parsed.add(signature.getPrintout());
+      }
+    });
+    assertEquals(Arrays.asList("java.lang.Object#toString() [Foobar]", "java.lang.** [Some message]"), parsed);
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.cli;
+
+import static de.thetaphi.forbiddenapis.Checker.Option.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import de.thetaphi.forbiddenapis.Checker;
+import de.thetaphi.forbiddenapis.ForbiddenApiException;
+import de.thetaphi.forbiddenapis.Logger;
+
+public final class ArchiveScannerTest {
+
+  private static final String[] INCLUDES = { "**/*.class" }, EXCLUDES = {};
+
+  private final List<String> warnings = new ArrayList<String>();
+  private final Logger logger = new Logger() {
+    @Override
+    public void error(String msg) {
+      System.err.println("ERROR: " + msg);
+    }
+
+    @Override
+    public void warn(String msg) {
+      warnings.add(msg);
+    }
+
+    @Override
+    public void info(String msg) {
+      // ignore
+    }
+  };
+
+  private Checker checker;
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    checker = new Checker(logger, ClassLoader.getSystemClassLoader(), FAIL_ON_MISSING_CLASSES, FAIL_ON_VIOLATION, FAIL_ON_UNRESOLVABLE_SIGNATURES);
+    assumeTrue("This test only works with a supported JDK (see docs)", checker.isSupportedJDK);
+    checker.parseSignaturesString("java.lang.Object#toString() @ Foobar");
+  }
+
+  @Test
+  public void testJar() throws Exception {
+    final File jar = writeArchive("test.jar", null,
+        "p/A.class", generateClass("p/A", true),
+        "p/B.class", generateClass("p/B", false),
+        "p/readme.txt", new byte[0]);
+    assertEquals(2, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 8).addClassesToCheck(checker, jar));
+    assertViolation(true);
+    assertEquals(new ArrayList<String>(), warnings);
+  }
+
+  @Test
+  public void testExcludes() throws Exception {
+    final File jar = writeArchive("test.jar", null,
+        "p/A.class", generateClass("p/A", true),
+        "p/B.class", generateClass("p/B", false));
+    assertEquals(1, new ArchiveScanner(logger, INCLUDES, new String[] { "p/A.class" }, 8).addClassesToCheck(checker, jar));
+    assertViolation(false);
+  }
+
+  @Test
+  public void testWarWithNestedJar() throws Exception {
+    final byte[] lib = writeArchive(null,
+        "q/C.class", generateClass("q/C", true));
+    final File war = writeArchive("test.war", null,
+        "WEB-INF/web.xml", new byte[0],
+        "WEB-INF/classes/p/A.class", generateClass("p/A", false),
+        "WEB-INF/lib/lib.jar", lib,
+        "WEB-INF/lib/other.jar", writeArchive(null, "q/D.class", generateClass("q/D", false)));
+    assertEquals(3, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 8).addClassesToCheck(checker, war));
+    assertViolation(true);
+    assertEquals(new ArrayList<String>(), warnings);
+  }
+
+  @Test
+  public void testDuplicateClasses() throws Exception {
+    final byte[] lib = writeArchive(null, "q/C.class", generateClass("q/C", false));
+    final File war = writeArchive("test.war", null,
+        "WEB-INF/lib/a.jar", lib,
+        "WEB-INF/lib/b.jar", lib);
+    assertEquals(2, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 8).addClassesToCheck(checker, war));
+    assertEquals(1, warnings.size());
+    assertTrue(warnings.get(0), warnings.get(0).contains("'q/C.class'"));
+  }
+
+  @Test
+  public void testMultiRelease() throws Exception {
+    final File jar = writeMultiReleaseJar(true);
+    assertEquals(1, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 8).addClassesToCheck(checker, jar));
+    assertViolation(false);
+
+    // the version for Java 9 replaces the base class:
+    setUp();
+    assertEquals(2, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 11).addClassesToCheck(checker, jar));
+    assertViolation(true);
+    assertEquals(new ArrayList<String>(), warnings);
+  }
+
+  @Test
+  public void testVersionsIgnoredWithoutMultiRelease() throws Exception {
+    final File jar = writeMultiReleaseJar(false);
+    assertEquals(1, new ArchiveScanner(logger, INCLUDES, EXCLUDES, 11).addClassesToCheck(checker, jar));
+    assertViolation(false);
+  }
+
+  @Test
+  public void testParseRelease() {
+    assertEquals(8, ArchiveScanner.parseRelease("1.8"));
+    assertEquals(11, ArchiveScanner.parseRelease("11"));
+    assertEquals(17, ArchiveScanner.parseRelease("17.0.9"));
+    assertEquals(-1, ArchiveScanner.parseRelease("foo"));
+    assertEquals(-1, ArchiveScanner.parseRelease(null));
+  }
+
+  private File writeMultiReleaseJar(boolean multiRelease) throws IOException {
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    if (multiRelease) {
+      manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+    }
+    return writeArchive("mr.jar", manifest,
+        "p/A.class", generateClass("p/A", false),
+        "META-INF/versions/9/p/A.class", generateClass("p/A", true));
+  }
+
+  private void assertViolation(boolean expected) throws Exception {
+    try {
+      checker.run();
+      assertFalse("Expected a violation", expected);
+    } catch (ForbiddenApiException fae) {
+      assertTrue("Unexpected violation: " + fae.getMessage(), expected);
+    }
+  }
+
+  /** Writes an archive with the given entries (pairs of name and contents) to the temporary folder. */
+  private File writeArchive(String fileName, Manifest manifest, Object... entries) throws IOException {
+    final File f = new File(tempDir.getRoot(), fileName);
+    final OutputStream out = new FileOutputStream(f);
+    try {
+      writeArchive(out, manifest, entries);
+    } finally {
+      out.close();
+    }
+    return f;
+  }
+
+  private static byte[] writeArchive(Manifest manifest, Object... entries) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeArchive(out, manifest, entries);
+    return out.toByteArray();
+  }
+
+  private static void writeArchive(OutputStream out, Manifest manifest, Object... entries) throws IOException {
+    final JarOutputStream jar = (manifest == null) ? new JarOutputStream(out) : new JarOutputStream(out, manifest);
+    for (int i = 0; i < entries.length; i += 2) {
+      jar.putNextEntry(new ZipEntry((String) entries[i]));
+      jar.write((byte[]) entries[i + 1]);
+      jar.closeEntry();
+    }
+    jar.finish();
+  }
+
+  /** Generates a class with a method, which calls the forbidden {@code Object#toString()} if requested. */
+  static byte[] generateClass(String name, boolean violating) {
+    final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "describe", "()Ljava/lang/String;", null, null);
+    mv.visitCode();
+    if (violating) {
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+    } else {
+      mv.visitLdcInsn(name);
+    }
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+}
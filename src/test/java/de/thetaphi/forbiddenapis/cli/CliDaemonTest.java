@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.cli;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.thetaphi.forbiddenapis.Logger;
+
+public final class CliDaemonTest {
+
+  /** Collects the errors, the other output is ignored. */
+  private static final class CollectingLogger implements Logger {
+    final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void error(String msg) {
+      errors.add(msg);
+    }
+
+    @Override
+    public void warn(String msg) {
+      // ignore
+    }
+
+    @Override
+    public void info(String msg) {
+      // ignore
+    }
+  }
+
+  private final CollectingLogger daemonLog = new CollectingLogger(), clientLog = new CollectingLogger();
+  private final IOException[] daemonFailure = new IOException[1];
+
+  private File tokenDir;
+  private CliDaemon daemon;
+  private int port;
+  private Thread daemonThread;
+
+  @Rule
+  public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    tokenDir = new File(tempDir.getRoot(), "tokens");
+    daemon = new CliDaemon(daemonLog, 0, tokenDir);
+    port = daemon.start();
+    daemonThread = new Thread("forbiddenapis-daemon") {
+      @Override
+      public void run() {
+        try {
+          daemon.run();
+        } catch (IOException ioe) {
+          daemonFailure[0] = ioe;
+        }
+      }
+    };
+    daemonThread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    daemon.stop();
+    daemonThread.join(10000L);
+    assertFalse("Daemon did not stop", daemonThread.isAlive());
+    assertNull(daemonFailure[0]);
+  }
+
+  @Test
+  public void testCheck() throws Exception {
+    final File classFile = new File(tempDir.getRoot(), "classes/p/A.class");
+    assertTrue(classFile.getParentFile().mkdirs());
+    writeFile(classFile, ArchiveScannerTest.generateClass("p/A", true));
+    writeFile(new File(tempDir.getRoot(), "signatures.txt"), "java.lang.Object#toString() @ Foobar\n".getBytes("UTF-8"));
+
+    // relative paths are resolved against the client's directory:
+    final List<String> args = Arrays.asList("--dir", "classes", "--signaturesfile", "signatures.txt");
+    assertEquals(CliMain.EXIT_VIOLATION, CliDaemon.submit(clientLog, port, tokenDir, tempDir.getRoot(), args));
+    assertTrue(clientLog.errors.toString(), clientLog.errors.get(0).startsWith("Forbidden method invocation: java.lang.Object#toString() [Foobar]"));
+
+    // the second check uses the same caches:
+    clientLog.errors.clear();
+    assertEquals(CliMain.EXIT_VIOLATION, CliDaemon.submit(clientLog, port, tokenDir, tempDir.getRoot(), args));
+    assertTrue(clientLog.errors.toString(), clientLog.errors.get(0).startsWith("Forbidden method invocation: java.lang.Object#toString() [Foobar]"));
+  }
+
+  @Test
+  public void testTokenFile() throws Exception {
+    final File tokenFile = CliDaemon.getTokenFile(tokenDir, port);
+    assertTrue(tokenFile.isFile());
+    assertEquals(64, tokenFile.length());
+
+    // a client without the token is rejected:
+    writeFile(tokenFile, "wrong".getBytes("UTF-8"));
+    assertEquals(CliMain.EXIT_ERR_OTHER, CliDaemon.submit(clientLog, port, tokenDir, tempDir.getRoot(), Arrays.asList("--version")));
+    assertEquals(Arrays.asList("Invalid token, the daemon was probably restarted."), clientLog.errors);
+    assertEquals(CliMain.EXIT_ERR_OTHER, CliDaemon.stop(clientLog, port, tokenDir));
+    assertTrue(daemonThread.isAlive());
+
+    try {
+      CliDaemon.submit(clientLog, port, new File(tempDir.getRoot(), "missing"), tempDir.getRoot(), Arrays.asList("--version"));
+      fail("There is no token file");
+    } catch (IOException ioe) {
+      // pass
+    }
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    final File tokenFile = CliDaemon.getTokenFile(tokenDir, port);
+    assertEquals(CliMain.EXIT_SUCCESS, CliDaemon.stop(clientLog, port, tokenDir));
+    daemonThread.join(10000L);
+    assertFalse("Daemon did not stop", daemonThread.isAlive());
+    assertFalse("Token file was not deleted", tokenFile.exists());
+  }
+
+  private static void writeFile(File f, byte[] data) throws IOException {
+    final OutputStream out = new FileOutputStream(f);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+}
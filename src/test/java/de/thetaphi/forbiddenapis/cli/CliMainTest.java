@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis.cli;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public final class CliMainTest {
+
+  private static List<String> removeConnectOption(String... args) throws Exception {
+    return new CliMain(args).removeConnectOption();
+  }
+
+  @Test
+  public void testRemoveConnectOption() throws Exception {
+    final List<String> expected = Arrays.asList("--dir=classes", "--bundledsignatures=jdk-unsafe", "--allowmissingclasses");
+    assertEquals(expected, removeConnectOption("--connect", "1234", "-d", "classes", "-b", "jdk-unsafe", "--allowmissingclasses"));
+    assertEquals(expected, removeConnectOption("-d", "classes", "--connect=1234", "-b", "jdk-unsafe", "--allowmissingclasses"));
+    assertEquals(expected, removeConnectOption("-d", "classes", "-b", "jdk-unsafe", "--allowmissingclasses", "--connect", "1234"));
+  }
+
+  @Test
+  public void testRemoveAbbreviatedConnectOption() throws Exception {
+    final List<String> expected = Arrays.asList("--dir=classes");
+    assertEquals(expected, removeConnectOption("--conn", "1234", "-d", "classes"));
+    assertEquals(expected, removeConnectOption("--co=1234", "-d", "classes"));
+    assertEquals(expected, removeConnectOption("-connect", "1234", "-d", "classes"));
+    assertEquals(expected, removeConnectOption("-d", "classes", "--connec", "1234"));
+  }
+
+  @Test
+  public void testRemoveConnectOptionKeepsValues() throws Exception {
+    final List<String> args = removeConnectOption("--connect", "1234", "--dir", "classes",
+        "-c", "a.jar" + File.pathSeparator + "b.jar", "--includes", "p/**,q/**", "--excludes=-foo.class");
+    assertEquals(Arrays.asList("--dir=classes", "--classpath=a.jar", "--classpath=b.jar",
+        "--includes=p/**", "--includes=q/**", "--excludes=-foo.class"), args);
+    // the daemon must parse the same options again:
+    assertEquals(args, new CliMain(args.toArray(new String[args.size()])).removeConnectOption());
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright Uwe Schindler (Generics Policeman) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.thetaphi.forbiddenapis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** Converts all bundled signatures files to the precompiled binary form, which is preferred by {@link Checker} at runtime. */
+public final class SignaturesCompiler {
+
+  private final File srcDir, destDir;
+
+  SignaturesCompiler(File srcDir, File destDir) {
+    this.srcDir = srcDir;
+    this.destDir = destDir;
+  }
+
+  @SuppressForbidden
+  void run() throws IOException,ParseException {
+    final File[] files = srcDir.listFiles();
+    if (files == null) {
+      throw new IOException("Signatures directory not found: " + srcDir);
+    }
+    Arrays.sort(files);
+    if (!destDir.isDirectory() && !destDir.mkdirs()) {
+      throw new IOException("Cannot create directory: " + destDir);
+    }
+    int count = 0;
+    for (final File f : files) {
+      final String name = f.getName();
+      if (!f.isFile() || !name.endsWith(".txt")) {
+        continue;
+      }
+      final File output = new File(destDir, name.substring(0, name.length() - 4) + ".bin");
+      final OutputStream out = new FileOutputStream(output);
+      try {
+        SignaturesParser.compile(new InputStreamReader(new FileInputStream(f), "UTF-8"), out);
+      } catch (ParseException pe) {
+        throw new ParseException(String.format(Locale.ENGLISH, "Failed to compile signatures file '%s': %s", f, pe.getMessage()));
+      } finally {
+        out.close();
+      }
+      count++;
+    }
+    System.err.println(String.format(Locale.ENGLISH, "Compiled %d bundled signatures file(s) to '%s'.", count, destDir));
+  }
+
+  public static void main(String... args) throws Exception {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Need 2 arguments: signatures source directory, output directory");
+    }
+    new SignaturesCompiler(new File(args[0]), new File(args[1])).run();
+  }
+}